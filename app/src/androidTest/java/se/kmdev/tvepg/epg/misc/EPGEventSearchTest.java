@@ -0,0 +1,156 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Checks that EPGEventSearch.getEventPosition() finds the same event as scanning the events linearly,
+ * which is how EPG hit testing used to work, for all stores and at every time around event boundaries.
+ */
+public class EPGEventSearchTest extends TestCase {
+
+    private static final EPGChannel CHANNEL = new EPGChannel(null, "Channel", "1");
+
+    public void testBackToBackEvents() {
+        assertSameAsLinear(events(0, 10, 10, 20, 20, 35));
+    }
+
+    public void testGaps() {
+        assertSameAsLinear(events(5, 10, 15, 20, 30, 31));
+    }
+
+    public void testZeroLengthEvents() {
+        assertSameAsLinear(events(0, 10, 10, 10, 10, 20, 25, 25));
+    }
+
+    public void testSingleEvent() {
+        assertSameAsLinear(events(10, 20));
+    }
+
+    public void testNoEvents() {
+        assertSameAsLinear(Lists.<EPGEvent>newArrayList());
+    }
+
+    public void testBackToBackAtBoundaryReturnsEarlierEvent() {
+        List<EPGEvent> events = events(0, 10, 10, 20);
+        assertEquals(0, EPGEventSearch.getEventPosition(new EPGDataImpl(data(events)), 0, 10));
+        assertEquals(1, EPGEventSearch.getEventPosition(new EPGDataImpl(data(events)), 0, 11));
+    }
+
+    public void testOutsideSchedule() {
+        EPGDataImpl epgData = new EPGDataImpl(data(events(10, 20, 20, 30)));
+        assertEquals(-1, EPGEventSearch.getEventPosition(epgData, 0, 9));
+        assertEquals(-1, EPGEventSearch.getEventPosition(epgData, 0, 31));
+    }
+
+    public void testRandomSchedules() {
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            List<EPGEvent> events = Lists.newArrayList();
+            final int count = random.nextInt(30);
+            long time = random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                // Gaps and back to back events mixed
+                time += random.nextInt(3) == 0 ? random.nextInt(4) : 0;
+                final long end = time + random.nextInt(6);
+                events.add(new EPGEvent(time, end, "Title " + j));
+                time = end;
+            }
+            assertSameAsLinear(events);
+        }
+    }
+
+    private static void assertSameAsLinear(List<EPGEvent> events) {
+        final long from = events.isEmpty() ? -2 : events.get(0).getStart() - 2;
+        final long to = events.isEmpty() ? 2 : events.get(events.size() - 1).getEnd() + 2;
+
+        List<EPGData> stores = Lists.newArrayList();
+        stores.add(new EPGDataImpl(data(events)));
+        stores.add(new EPGColumnarData(data(events)));
+        stores.add(new ListData(Lists.newArrayList(events)));
+        stores.add(new ListData(new LinkedList<EPGEvent>(events)));
+
+        for (long time = from; time <= to; time++) {
+            final int expected = linearPosition(events, time);
+            for (EPGData store : stores) {
+                assertEquals(store.getClass().getSimpleName() + " at " + time,
+                        expected, EPGEventSearch.getEventPosition(store, 0, time));
+            }
+        }
+    }
+
+    /**
+     * Hit testing as EPG.getProgramPosition() did before using EPGEventSearch.
+     */
+    private static int linearPosition(List<EPGEvent> events, long time) {
+        for (int eventPos = 0; eventPos < events.size(); eventPos++) {
+            EPGEvent event = events.get(eventPos);
+            if (event.getStart() <= time && event.getEnd() >= time) {
+                return eventPos;
+            }
+        }
+        return -1;
+    }
+
+    private static List<EPGEvent> events(long... times) {
+        List<EPGEvent> events = Lists.newArrayList();
+        for (int i = 0; i < times.length; i += 2) {
+            events.add(new EPGEvent(times[i], times[i + 1], "Title " + i));
+        }
+        return events;
+    }
+
+    private static Map<EPGChannel, List<EPGEvent>> data(List<EPGEvent> events) {
+        Map<EPGChannel, List<EPGEvent>> data = Maps.newLinkedHashMap();
+        data.put(CHANNEL, events);
+        return data;
+    }
+
+    /**
+     * Plain EPGData, searched through its event list.
+     */
+    private static class ListData implements EPGData {
+
+        private final List<EPGEvent> events;
+
+        ListData(List<EPGEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public EPGChannel getChannel(int position) {
+            return CHANNEL;
+        }
+
+        @Override
+        public List<EPGEvent> getEvents(int channelPosition) {
+            return events;
+        }
+
+        @Override
+        public EPGEvent getEvent(int channelPosition, int programPosition) {
+            return events.get(programPosition);
+        }
+
+        @Override
+        public int getChannelCount() {
+            return 1;
+        }
+
+        @Override
+        public boolean hasData() {
+            return true;
+        }
+    }
+}
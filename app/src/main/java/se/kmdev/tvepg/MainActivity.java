@@ -2,23 +2,48 @@ package se.kmdev.tvepg;
 
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v7.app.ActionBarActivity;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import se.kmdev.tvepg.epg.EPG;
 import se.kmdev.tvepg.epg.EPGClickListener;
 import se.kmdev.tvepg.epg.EPGData;
 import se.kmdev.tvepg.epg.domain.EPGChannel;
 import se.kmdev.tvepg.epg.domain.EPGEvent;
-import se.kmdev.tvepg.epg.misc.EPGDataImpl;
+import se.kmdev.tvepg.epg.misc.EPGBinaryCache;
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGMutableData;
+import se.kmdev.tvepg.epg.misc.EPGParallelIngest;
+import se.kmdev.tvepg.epg.misc.EPGProgressiveLoader;
+import se.kmdev.tvepg.epg.misc.EPGScheduleNormalizer;
 import se.kmdev.tvepg.epg.misc.MockDataService;
 
 
 public class MainActivity extends ActionBarActivity {
 
+    private static final String TAG = "MainActivity";
+    private static final long CACHE_MAX_AGE_MILLIS = 6 * 60 * 60 * 1000;     // 6 hours
+    private static final int FIRST_SCREEN_CHANNELS = 10;
+    private static final long MIN_GAP_MILLIS = 60 * 1000;     // 1 minute
+
     private EPG epg;
+    private ExecutorService loadExecutor;
+    private ExecutorService workerPool;
+    private EPGProgressiveLoader progressiveLoader;
+    private AsyncLoadEPGData loadTask;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -43,12 +68,107 @@ public class MainActivity extends ActionBarActivity {
             }
         });
 
-        // Do initial load of data.
-        new AsyncLoadEPGData(epg).execute();
+        // Do initial load of data, from cache if recent enough or else screen by screen.
+        final File cacheFile = new File(getCacheDir(), "guide.bin");
+        if (EPGBinaryCache.isFresh(cacheFile, CACHE_MAX_AGE_MILLIS)) {
+            loadTask = new AsyncLoadEPGData(cacheFile);
+            loadTask.execute();
+        } else {
+            loadProgressively();
+        }
+    }
+
+    /**
+     * Show channels on screen around now as soon as they are loaded and let the guide grow as the rest
+     * arrives, the whole guide is written to cache when done. Channels are loaded in parallel on one
+     * thread per core.
+     */
+    private void loadProgressively() {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        loadExecutor = Executors.newSingleThreadExecutor();
+        workerPool = EPGParallelIngest.newWorkerPool(cores);
+        final EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_LATER, MIN_GAP_MILLIS);
+        progressiveLoader = new EPGProgressiveLoader(new EPGProgressiveLoader.Source() {
+            @Override
+            public List<EPGChannel> loadChannels() {
+                return MockDataService.getMockChannels();
+            }
+
+            @Override
+            public List<EPGEvent> loadEvents(int channelPosition, EPGChannel channel, long from, long to) {
+                return MockDataService.getMockEvents(channelPosition, from, to);
+            }
+        }, new EPGProgressiveLoader.Listener() {
+            @Override
+            public void onFirstScreenLoaded(EPGMutableData data, long from, long to) {
+                final long now = System.currentTimeMillis();
+                epg.setTimeWindow(now - from, to - now);
+                epg.setEPGData(data);
+                epg.recalculateAndRedraw(false);
+            }
+
+            @Override
+            public void onRangeLoaded(long from, long to) {
+                final long now = System.currentTimeMillis();
+                epg.setTimeWindow(now - from, to - now);
+            }
+
+            @Override
+            public void onLoadCompleted(EPGMutableData data) {
+                Log.d(TAG, "EPG data loaded, " + data.getTitleDictionary() + ", " + normalizer);
+                // Days entering the window from now on are loaded from the same source, not before since
+                // the window grows over days the loader is already loading
+                data.setDayLoader(progressiveLoader);
+                writeCache(data);
+            }
+
+            @Override
+            public void onLoadFailed(Exception e) {
+                Log.w(TAG, "Failed to load EPG data", e);
+            }
+        }, loadExecutor);
+        progressiveLoader.setNormalizer(normalizer);
+        progressiveLoader.setWorkerPool(workerPool, cores);
+        progressiveLoader.start(FIRST_SCREEN_CHANNELS, EPG.DAYS_BACK_MILLIS, EPG.DAYS_FORWARD_MILLIS);
+    }
+
+    /**
+     * Data is only used on main thread so a copy is written in the background.
+     */
+    private void writeCache(EPGMutableData data) {
+        final Map<EPGChannel, List<EPGEvent>> snapshot = Maps.newLinkedHashMap();
+        for (int i = 0; i < data.getChannelCount(); i++) {
+            snapshot.put(data.getChannel(i), Lists.newArrayList(data.getEvents(i)));
+        }
+
+        final File cacheFile = new File(getCacheDir(), "guide.bin");
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    EPGBinaryCache.write(new EPGColumnarData(snapshot), cacheFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write EPG cache", e);
+                }
+            }
+        });
     }
 
     @Override
     protected void onDestroy() {
+        if (loadTask != null) {
+            loadTask.cancel(false);
+        }
+        if (progressiveLoader != null) {
+            progressiveLoader.cancel();
+        }
+        if (loadExecutor != null) {
+            loadExecutor.shutdown();
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
         if (epg != null) {
             epg.clearEPGImageCache();
         }
@@ -77,21 +197,33 @@ public class MainActivity extends ActionBarActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private static class AsyncLoadEPGData extends AsyncTask<Void, Void, EPGData> {
+    /**
+     * Opens the guide cached at last launch, loads it again if the cache can't be opened.
+     */
+    private class AsyncLoadEPGData extends AsyncTask<Void, Void, EPGData> {
 
-        EPG epg;
+        private final File cacheFile;
 
-        public AsyncLoadEPGData(EPG epg) {
-            this.epg = epg;
+        public AsyncLoadEPGData(File cacheFile) {
+            this.cacheFile = cacheFile;
         }
 
         @Override
         protected EPGData doInBackground(Void... voids) {
-            return new EPGDataImpl(MockDataService.getMockData());
+            try {
+                return EPGBinaryCache.open(cacheFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to open EPG cache, loading data again", e);
+                return null;
+            }
         }
 
         @Override
         protected void onPostExecute(EPGData epgData) {
+            if (epgData == null) {
+                loadProgressively();
+                return;
+            }
             epg.setEPGData(epgData);
             epg.recalculateAndRedraw(false);
         }
@@ -1,29 +1,40 @@
 package se.kmdev.tvepg.epg;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
 import android.util.AttributeSet;
 import android.view.GestureDetector;
+import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.ViewGroup;
 import android.widget.Scroller;
 
-import com.google.common.collect.Maps;
-import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Target;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 import se.kmdev.tvepg.R;
 import se.kmdev.tvepg.epg.domain.EPGEvent;
+import se.kmdev.tvepg.epg.misc.EPGEventSearch;
+import se.kmdev.tvepg.epg.misc.EPGFrameStats;
+import se.kmdev.tvepg.epg.misc.EPGImageCache;
+import se.kmdev.tvepg.epg.misc.EPGLevelOfDetail;
+import se.kmdev.tvepg.epg.misc.EPGLogoPrefetcher;
+import se.kmdev.tvepg.epg.misc.EPGPagedData;
+import se.kmdev.tvepg.epg.misc.EPGTextLayoutCache;
+import se.kmdev.tvepg.epg.misc.EPGTileCache;
 import se.kmdev.tvepg.epg.misc.EPGUtil;
 
 /**
@@ -36,17 +47,27 @@ import se.kmdev.tvepg.epg.misc.EPGUtil;
 public class EPG extends ViewGroup {
 
     public final String TAG = getClass().getSimpleName();
-    public static final int DAYS_BACK_MILLIS = 3 * 24 * 60 * 60 * 1000;        // 3 days
-    public static final int DAYS_FORWARD_MILLIS = 3 * 24 * 60 * 60 * 1000;     // 3 days
+    public static final long DAYS_BACK_MILLIS = 3 * 24 * 60 * 60 * 1000L;      // 3 days, default
+    public static final long DAYS_FORWARD_MILLIS = 3 * 24 * 60 * 60 * 1000L;   // 3 days, default
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
     public static final int HOURS_IN_VIEWPORT_MILLIS = 2 * 60 * 60 * 1000;     // 2 hours
+    public static final int MIN_VIEWPORT_MILLIS = 30 * 60 * 1000;               // 30 minutes
+    public static final int MAX_VIEWPORT_MILLIS = 24 * 60 * 60 * 1000;          // 24 hours
     public static final int TIME_LABEL_SPACING_MILLIS = 30 * 60 * 1000;        // 30 minutes
+    public static final int TILE_WIDTH = 512;                                   // pixels
+    public static final int FOCUS_SCROLL_DURATION = 150;                        // millis
+    private static final int TIME_WINDOW_RETRY_MILLIS = 1000;
+    private static final int[] TIME_LABEL_SPACINGS_MILLIS = {TIME_LABEL_SPACING_MILLIS, 60 * 60 * 1000,
+            2 * 60 * 60 * 1000, 3 * 60 * 60 * 1000, 6 * 60 * 60 * 1000, 12 * 60 * 60 * 1000};
 
     private final Rect mClipRect;
     private final Rect mDrawingRect;
     private final Rect mMeasuringRect;
+    private final Rect mFocusRect;
     private final Paint mPaint;
     private final Scroller mScroller;
     private final GestureDetector mGestureDetector;
+    private final ScaleGestureDetector mScaleGestureDetector;
 
     private final int mChannelLayoutMargin;
     private final int mChannelLayoutPadding;
@@ -55,8 +76,12 @@ public class EPG extends ViewGroup {
     private final int mChannelLayoutBackground;
     private final int mEventLayoutBackground;
     private final int mEventLayoutBackgroundCurrent;
+    private final int mEventLayoutBackgroundPlaceholder;
     private final int mEventLayoutTextColor;
+    private final int mEventLayoutFocusColor;
+    private final int mEventLayoutFocusWidth;
     private final int mEventLayoutTextSize;
+    private final int mEventMinWidth;
     private final int mTimeBarLineWidth;
     private final int mTimeBarLineColor;
     private final int mTimeBarHeight;
@@ -67,18 +92,48 @@ public class EPG extends ViewGroup {
     private final Bitmap mResetButtonIcon;
 
     private final int mEPGBackground;
-    private final Map<String, Bitmap> mChannelImageCache;
-    private final Map<String, Target> mChannelImageTargetCache;
+    private final EPGImageCache mChannelImageCache;
+    private final EPGImageCache.Listener mChannelImageListener = new ChannelImageListener();
+    private final EPGLogoPrefetcher mLogoPrefetcher;
+    private final EPGTextLayoutCache mTextLayoutCache = new EPGTextLayoutCache();
 
     private EPGClickListener mClickListener;
     private int mMaxHorizontalScroll;
     private int mMaxVerticalScroll;
-    private long mMillisPerPixel;
+    private long mViewportMillis = HOURS_IN_VIEWPORT_MILLIS;
+    private double mMillisPerPixel;
+    private long mTimeLabelSpacing = TIME_LABEL_SPACING_MILLIS;
+    private long mDaysBackMillis = DAYS_BACK_MILLIS;
+    private long mDaysForwardMillis = DAYS_FORWARD_MILLIS;
     private long mTimeOffset;
     private long mTimeLowerBoundary;
     private long mTimeUpperBoundary;
 
     private EPGData epgData = null;
+    private boolean mTileCacheEnabled = false;
+    private EPGTileCache mTileCache = null;
+    // Level of detail drawn at current zoom, -1 when events are drawn as they are
+    private EPGLevelOfDetail mLevelOfDetail = null;
+    private int mLevel = -1;
+    private final EPGDataObserver mDataObserver = new DataObserver();
+    private int mLastViewportScrollX;
+    private int mLastViewportScrollY;
+    private boolean mFlingPrefetching = false;
+    // Added to mScroller's x, moved when the time window changes under a running scroll or fling
+    private int mScrollerShiftX;
+    private EPGFrameStats mFrameStats = null;
+    private boolean mFrameStatsOverlayEnabled = false;
+
+    // Focused event is kept by time since positions change when paged or mutable data is updated
+    // Time used for everything drawn in a frame and when highlighting of drawn events changes next
+    private long mFrameNow;
+    private long mNextHighlightChange;
+    private final Runnable mTimeTick = new TimeTick();
+
+    private int mFocusedChannel = -1;
+    private long mFocusedStart;
+    private long mFocusedEnd;
+    private long mFocusTime;
 
     public EPG(Context context) {
         this(context, null);
@@ -92,16 +147,19 @@ public class EPG extends ViewGroup {
         super(context, attrs, defStyleAttr);
 
         setWillNotDraw(false);
+        setFocusable(true);
 
         resetBoundaries();
 
         mDrawingRect = new Rect();
         mClipRect = new Rect();
         mMeasuringRect = new Rect();
+        mFocusRect = new Rect();
         mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mGestureDetector = new GestureDetector(context, new OnGestureListener());
-        mChannelImageCache = Maps.newHashMap();
-        mChannelImageTargetCache = Maps.newHashMap();
+        mScaleGestureDetector = new ScaleGestureDetector(context, new OnScaleGestureListener());
+        mChannelImageCache = new EPGImageCache(context);
+        mLogoPrefetcher = new EPGLogoPrefetcher(mChannelImageCache, mChannelImageListener);
 
         // Adding some friction that makes the epg less flappy.
         mScroller = new Scroller(context);
@@ -117,8 +175,12 @@ public class EPG extends ViewGroup {
 
         mEventLayoutBackground = getResources().getColor(R.color.epg_event_layout_background);
         mEventLayoutBackgroundCurrent = getResources().getColor(R.color.epg_event_layout_background_current);
+        mEventLayoutBackgroundPlaceholder = getResources().getColor(R.color.epg_event_layout_background_placeholder);
         mEventLayoutTextColor = getResources().getColor(R.color.epg_event_layout_text);
         mEventLayoutTextSize = getResources().getDimensionPixelSize(R.dimen.epg_event_layout_text);
+        mEventLayoutFocusColor = getResources().getColor(R.color.epg_event_layout_focus);
+        mEventLayoutFocusWidth = getResources().getDimensionPixelSize(R.dimen.epg_event_layout_focus_width);
+        mEventMinWidth = getResources().getDimensionPixelSize(R.dimen.epg_event_min_width);
 
         mTimeBarHeight = getResources().getDimensionPixelSize(R.dimen.epg_time_bar_height);
         mTimeBarTextSize = getResources().getDimensionPixelSize(R.dimen.epg_time_bar_text);
@@ -138,36 +200,92 @@ public class EPG extends ViewGroup {
     protected void onDraw(Canvas canvas) {
 
         if (epgData != null && epgData.hasData()) {
+            mFrameNow = System.currentTimeMillis();
+            mNextHighlightChange = Long.MAX_VALUE;
             mTimeLowerBoundary = getTimeFrom(getScrollX());
             mTimeUpperBoundary = getTimeFrom(getScrollX() + getWidth());
 
+            if (epgData instanceof EPGPagedData) {
+                notifyViewportChanged((EPGPagedData) epgData);
+            }
+
             Rect drawingRect = mDrawingRect;
             drawingRect.left = getScrollX();
             drawingRect.top = getScrollY();
             drawingRect.right = drawingRect.left + getWidth();
             drawingRect.bottom = drawingRect.top + getHeight();
 
+            // Each phase is timed when frame stats are enabled
+            final EPGFrameStats stats = mFrameStats;
+            if (stats != null) {
+                stats.beginFrame();
+            }
+
             drawChannelListItems(canvas, drawingRect);
-            drawEvents(canvas, drawingRect);
+            markPhase(stats, EPGFrameStats.PHASE_CHANNELS);
+            if (mTileCache != null) {
+                drawEventTiles(canvas, drawingRect);
+            } else {
+                drawEvents(canvas, drawingRect);
+            }
+            drawFocus(canvas);
+            markPhase(stats, EPGFrameStats.PHASE_EVENTS);
             drawTimebar(canvas, drawingRect);
+            markPhase(stats, EPGFrameStats.PHASE_TIMEBAR);
             drawTimeLine(canvas, drawingRect);
+            markPhase(stats, EPGFrameStats.PHASE_TIME_LINE);
             drawResetButton(canvas, drawingRect);
+            markPhase(stats, EPGFrameStats.PHASE_RESET_BUTTON);
 
             // If scroller is scrolling/animating do scroll. This applies when doing a fling.
-            if (mScroller.computeScrollOffset()) {
-                scrollTo(mScroller.getCurrX(), mScroller.getCurrY());
+            final boolean scrolling = mScroller.computeScrollOffset();
+            if (scrolling) {
+                scrollTo(mScroller.getCurrX() + mScrollerShiftX, mScroller.getCurrY());
+            } else if (mFlingPrefetching) {
+                stopFlingPrefetch();
+            }
+
+            if (stats != null) {
+                stats.setCacheCounts(EPGFrameStats.CACHE_TEXT_LAYOUT,
+                        mTextLayoutCache.getHitCount(), mTextLayoutCache.getMissCount());
+                if (mTileCache != null) {
+                    stats.setCacheCounts(EPGFrameStats.CACHE_TILE, mTileCache.getHitCount(), mTileCache.getMissCount());
+                }
+                stats.setCacheCounts(EPGFrameStats.CACHE_IMAGE,
+                        mChannelImageCache.getHitCount(), mChannelImageCache.getMissCount());
+                stats.endFrame(scrolling);
+
+                if (mFrameStatsOverlayEnabled) {
+                    drawFrameStatsOverlay(canvas, drawingRect, stats);
+                }
             }
+
+            scheduleTimeTick(mFrameNow);
         }
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mTimeTick);
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
+        if (mTileCacheEnabled) {
+            createTileCache();
+        }
         recalculateAndRedraw(false);
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        // Scrolling is left out while pinching so the time under the fingers stays put
+        mScaleGestureDetector.onTouchEvent(event);
+        if (mScaleGestureDetector.isInProgress()) {
+            return true;
+        }
         return mGestureDetector.onTouchEvent(event);
     }
 
@@ -175,10 +293,87 @@ public class EPG extends ViewGroup {
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
     }
 
+    /**
+     * Focused event is kept while focus is elsewhere so navigation resumes there, only the outline goes.
+     */
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        if (mFocusedChannel != -1) {
+            invalidateFocus();
+        }
+    }
+
+    /**
+     * D-pad navigation. Left and right moves focus to adjacent event on the channel, up and down to the
+     * event at the same time on the adjacent channel. Center and enter clicks the focused event.
+     */
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (epgData == null || !epgData.hasData()) {
+            return super.onKeyDown(keyCode, event);
+        }
+
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                return focusAdjacentEvent(-1) || mFocusedChannel != -1;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                return focusAdjacentEvent(1) || mFocusedChannel != -1;
+            case KeyEvent.KEYCODE_DPAD_UP:
+                // Let focus leave the EPG from the first channel
+                return focusAdjacentChannel(-1);
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                return focusAdjacentChannel(1) || mFocusedChannel != -1;
+            case KeyEvent.KEYCODE_DPAD_CENTER:
+            case KeyEvent.KEYCODE_ENTER:
+                return clickFocusedEvent() || super.onKeyDown(keyCode, event);
+            default:
+                return super.onKeyDown(keyCode, event);
+        }
+    }
+
+    private static void markPhase(EPGFrameStats stats, int phase) {
+        if (stats != null) {
+            stats.mark(phase);
+        }
+    }
+
+    /**
+     * Debug overlay in lower left corner showing last frame phase times, dropped frames and cache hit rates.
+     */
+    private void drawFrameStatsOverlay(Canvas canvas, Rect drawingRect, EPGFrameStats stats) {
+        final int lineHeight = mTimeBarTextSize;
+        final int lineCount = EPGFrameStats.PHASE_COUNT + EPGFrameStats.CACHE_COUNT + 1;
+
+        drawingRect.left = getScrollX();
+        drawingRect.right = drawingRect.left + mChannelLayoutWidth * 2;
+        drawingRect.bottom = getScrollY() + getHeight();
+        drawingRect.top = drawingRect.bottom - (lineCount + 1) * lineHeight;
+        mPaint.setColor(0xb0000000);
+        canvas.drawRect(drawingRect, mPaint);
+
+        mPaint.setColor(Color.WHITE);
+        mPaint.setTextSize(lineHeight * 0.8f);
+        int y = drawingRect.top + lineHeight;
+        for (int i = 0; i < EPGFrameStats.PHASE_COUNT; i++) {
+            canvas.drawText(EPGFrameStats.getPhaseName(i) + " " + stats.getLastPhaseNanos(i) / 1000 + "us, p95 "
+                    + stats.getPhase(i).getPercentile(0.95f) / 1000 + "us", drawingRect.left + lineHeight / 2, y, mPaint);
+            y += lineHeight;
+        }
+        canvas.drawText("dropped " + stats.getDroppedFrameCount() + "/" + stats.getFrameCount(),
+                drawingRect.left + lineHeight / 2, y, mPaint);
+        y += lineHeight;
+        for (int i = 0; i < EPGFrameStats.CACHE_COUNT; i++) {
+            canvas.drawText(EPGFrameStats.getCacheName(i) + " hits " + Math.round(stats.getCacheHitRate(i) * 100) + "%",
+                    drawingRect.left + lineHeight / 2, y, mPaint);
+            y += lineHeight;
+        }
+    }
+
     private void drawResetButton(Canvas canvas, Rect drawingRect) {
         // Show button when scrolled 1/3 of screen width from current time
         final long threshold = getWidth() / 3;
-        if (Math.abs(getXPositionStart() - getScrollX()) > threshold) {
+        if (Math.abs(getXPositionStart(mFrameNow) - getScrollX()) > threshold) {
             drawingRect = calculateResetButtonHitArea();
             mPaint.setColor(mTimeBarLineColor);
             canvas.drawCircle(drawingRect.right - (mResetButtonSize / 2),
@@ -227,11 +422,10 @@ public class EPG extends ViewGroup {
         mPaint.setColor(mEventLayoutTextColor);
         mPaint.setTextSize(mTimeBarTextSize);
 
-        for (int i = 0; i < HOURS_IN_VIEWPORT_MILLIS / TIME_LABEL_SPACING_MILLIS; i++) {
-            // Get time and round to nearest half hour
-            final long time = TIME_LABEL_SPACING_MILLIS *
-                    (((mTimeLowerBoundary + (TIME_LABEL_SPACING_MILLIS * i)) +
-                            (TIME_LABEL_SPACING_MILLIS / 2)) / TIME_LABEL_SPACING_MILLIS);
+        final long spacing = mTimeLabelSpacing;
+        for (int i = 0; i <= mViewportMillis / spacing; i++) {
+            // Get time and round to nearest label spacing
+            final long time = roundToTimeLabel(mTimeLowerBoundary + (spacing * i), spacing);
 
             canvas.drawText(EPGUtil.getShortTime(time),
                     getXFrom(time),
@@ -244,6 +438,15 @@ public class EPG extends ViewGroup {
         drawTimebarBottomStroke(canvas, drawingRect);
     }
 
+    /**
+     * @return time rounded to nearest multiple of spacing in local time, so labels wider apart than
+     * an hour falls on e.g. 06:00 and 12:00 regardless of time zone.
+     */
+    private long roundToTimeLabel(long time, long spacing) {
+        final long zoneOffset = DateTimeZone.getDefault().getOffset(time);
+        return spacing * ((time + zoneOffset + (spacing / 2)) / spacing) - zoneOffset;
+    }
+
     private void drawTimebarDayIndicator(Canvas canvas, Rect drawingRect) {
         drawingRect.left = getScrollX();
         drawingRect.top = getScrollY();
@@ -265,8 +468,34 @@ public class EPG extends ViewGroup {
         mPaint.setTextAlign(Paint.Align.LEFT);
     }
 
+    /**
+     * Outline of the focused event on top of the program grid, only while the view has focus.
+     */
+    private void drawFocus(Canvas canvas) {
+        if (mFocusedChannel == -1 || !isFocused()) {
+            return;
+        }
+
+        mClipRect.left = getScrollX() + mChannelLayoutWidth + mChannelLayoutMargin;
+        mClipRect.top = getScrollY() + mTimeBarHeight;
+        mClipRect.right = getScrollX() + getWidth();
+        mClipRect.bottom = getScrollY() + getHeight();
+
+        canvas.save();
+        canvas.clipRect(mClipRect);
+
+        getFocusRect(mFocusRect);
+        mPaint.setColor(mEventLayoutFocusColor);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(mEventLayoutFocusWidth);
+        canvas.drawRect(mFocusRect, mPaint);
+        mPaint.setStyle(Paint.Style.FILL);
+
+        canvas.restore();
+    }
+
     private void drawTimeLine(Canvas canvas, Rect drawingRect) {
-        long now = System.currentTimeMillis();
+        final long now = mFrameNow;
 
         if (shouldDrawTimeLine(now)) {
             drawingRect.left = getXFrom(now);
@@ -283,6 +512,7 @@ public class EPG extends ViewGroup {
     private void drawEvents(Canvas canvas, Rect drawingRect) {
         final int firstPos = getFirstVisibleChannelPosition();
         final int lastPos = getLastVisibleChannelPosition();
+        final long now = mFrameNow;
 
         for (int pos = firstPos; pos <= lastPos; pos++) {
 
@@ -295,31 +525,207 @@ public class EPG extends ViewGroup {
             canvas.save();
             canvas.clipRect(mClipRect);
 
-            // Draw each event
-            boolean foundFirst = false;
+            mNextHighlightChange = Math.min(mNextHighlightChange,
+                    drawChannelEvents(canvas, pos, mTimeLowerBoundary, mTimeUpperBoundary, now, drawingRect));
+
+            canvas.restore();
+        }
+
+    }
+
+    /**
+     * Draws events through the tile cache, only tiles that are missing or no longer valid are rendered.
+     */
+    private void drawEventTiles(Canvas canvas, Rect drawingRect) {
+        final long now = mFrameNow;
+        final int tileWidth = mTileCache.getTileWidth();
+        final int tileHeight = mTileCache.getTileHeight();
+
+        // Clip to program area
+        mClipRect.left = getScrollX() + mChannelLayoutWidth + mChannelLayoutMargin;
+        mClipRect.top = getScrollY();
+        mClipRect.right = getScrollX() + getWidth();
+        mClipRect.bottom = mClipRect.top + getHeight();
+
+        canvas.save();
+        canvas.clipRect(mClipRect);
+
+        final int firstTimeBand = floorDiv(mClipRect.left - getTilesLeft(), tileWidth);
+        final int lastTimeBand = floorDiv(mClipRect.right - 1 - getTilesLeft(), tileWidth);
+        final int firstChannelBand = floorDiv(mClipRect.top - getTilesTop(), tileHeight);
+        final int lastChannelBand = floorDiv(mClipRect.bottom - 1 - getTilesTop(), tileHeight);
 
-            List<EPGEvent> epgEvents = epgData.getEvents(pos);
+        mTileCache.nextFrame();
 
-            for (EPGEvent event : epgEvents) {
-                if (isEventVisible(event.getStart(), event.getEnd())) {
-                    drawEvent(canvas, pos, event, drawingRect);
-                    foundFirst = true;
-                } else if (foundFirst) {
-                    break;
+        for (int channelBand = firstChannelBand; channelBand <= lastChannelBand; channelBand++) {
+            for (int timeBand = firstTimeBand; timeBand <= lastTimeBand; timeBand++) {
+                EPGTileCache.Tile tile = mTileCache.get(channelBand, timeBand);
+                if (!tile.isValid(now)) {
+                    renderTile(tile, now, drawingRect);
                 }
+                mNextHighlightChange = Math.min(mNextHighlightChange, tile.getValidUntil());
+                canvas.drawBitmap(tile.getBitmap(), getTilesLeft() + timeBand * tileWidth,
+                        getTilesTop() + channelBand * tileHeight, null);
             }
+        }
+
+        canvas.restore();
+    }
+
+    private void renderTile(EPGTileCache.Tile tile, long now, Rect drawingRect) {
+        final int left = getTilesLeft() + tile.getTimeBand() * mTileCache.getTileWidth();
+        final int top = getTilesTop() + tile.getChannelBand() * mTileCache.getTileHeight();
+        final int right = left + mTileCache.getTileWidth();
+        final int bottom = top + mTileCache.getTileHeight();
+        final Canvas canvas = tile.getCanvas();
 
+        canvas.save();
+        canvas.translate(-left, -top);
+        canvas.drawColor(mEPGBackground);
+
+        final int channelsPerTile = getChannelsPerTile();
+        final int firstPos = tile.getChannelBand() * channelsPerTile;
+        final int lastPos = Math.min(firstPos + channelsPerTile, epgData.getChannelCount()) - 1;
+        final long from = getTimeFrom(left - getTilesLeft());
+        final long to = getTimeFrom(right - getTilesLeft());
+        long validUntil = Long.MAX_VALUE;
+
+        for (int pos = Math.max(firstPos, 0); pos <= lastPos; pos++) {
+            mClipRect.left = left;
+            mClipRect.top = getTopFrom(pos);
+            mClipRect.right = right;
+            mClipRect.bottom = mClipRect.top + mChannelLayoutHeight;
+
+            canvas.save();
+            canvas.clipRect(mClipRect);
+            validUntil = Math.min(validUntil, drawChannelEvents(canvas, pos, from, to, now, drawingRect));
             canvas.restore();
         }
 
+        canvas.restore();
+        tile.setRendered(validUntil);
     }
 
-    private void drawEvent(final Canvas canvas, final int channelPosition, final EPGEvent event, final Rect drawingRect) {
+    /**
+     * Draws events of a channel overlapping given time range, range is found by binary search on start and end time.
+     * @return time when the current event highlight of drawn events changes next.
+     */
+    private long drawChannelEvents(Canvas canvas, int channelPosition, long from, long to, long now, Rect drawingRect) {
+        if (epgData instanceof EPGPagedData) {
+            drawPlaceholders(canvas, channelPosition, from, to, (EPGPagedData) epgData, drawingRect);
+        }
+
+        if (mLevel >= 0) {
+            return drawChannelItems(canvas, channelPosition, from, to, now, drawingRect);
+        }
+
+        final int firstEvent = EPGEventSearch.getFirstEventPosition(epgData, channelPosition, from);
+        final int lastEvent = EPGEventSearch.getLastEventPosition(epgData, channelPosition, to);
+        long nextChange = Long.MAX_VALUE;
+
+        for (int eventPos = firstEvent; eventPos <= lastEvent; eventPos++) {
+            final long start;
+            final long end;
+            final String title;
+
+            if (epgData instanceof EPGIndexedData) {
+                final EPGIndexedData indexedData = (EPGIndexedData) epgData;
+                start = indexedData.getEventStart(channelPosition, eventPos);
+                end = indexedData.getEventEnd(channelPosition, eventPos);
+                title = indexedData.getEventTitle(channelPosition, eventPos);
+            } else {
+                EPGEvent event = epgData.getEvent(channelPosition, eventPos);
+                start = event.getStart();
+                end = event.getEnd();
+                title = event.getTitle();
+            }
 
-        setEventDrawingRectangle(channelPosition, event.getStart(), event.getEnd(), drawingRect);
+            drawEvent(canvas, channelPosition, start, end, title, now, drawingRect);
+            nextChange = Math.min(nextChange, getNextHighlightChange(start, end, now));
+        }
+        return nextChange;
+    }
+
+    /**
+     * Same as drawChannelEvents() but draws items of current level of detail, events too narrow to be
+     * drawn on their own are drawn as one block per run.
+     */
+    private long drawChannelItems(Canvas canvas, int channelPosition, long from, long to, long now, Rect drawingRect) {
+        final EPGLevelOfDetail levelOfDetail = getLevelOfDetail();
+        final int level = mLevel;
+        final int firstItem = levelOfDetail.getFirstItemPosition(channelPosition, level, from);
+        final int lastItem = levelOfDetail.getLastItemPosition(channelPosition, level, to);
+        long nextChange = Long.MAX_VALUE;
+
+        for (int item = firstItem; item <= lastItem; item++) {
+            final long start = levelOfDetail.getItemStart(channelPosition, level, item);
+            final long end = levelOfDetail.getItemEnd(channelPosition, level, item);
+
+            if (levelOfDetail.getItemEventCount(channelPosition, level, item) == 1) {
+                final int eventPos = levelOfDetail.getItemEventPosition(channelPosition, level, item);
+                drawEvent(canvas, channelPosition, start, end, getEventTitle(channelPosition, eventPos), now, drawingRect);
+            } else {
+                drawAggregate(canvas, channelPosition, start, end, now, drawingRect);
+            }
+            nextChange = Math.min(nextChange, getNextHighlightChange(start, end, now));
+        }
+        return nextChange;
+    }
+
+    /**
+     * Block standing in for a run of short events, there is no room for titles so only background is drawn.
+     */
+    private void drawAggregate(final Canvas canvas, final int channelPosition, final long start, final long end,
+                               final long now, final Rect drawingRect) {
+        setEventDrawingRectangle(channelPosition, start, end, drawingRect);
+
+        if (mFrameStats != null) {
+            mFrameStats.countEvent();
+        }
+
+        mPaint.setColor(isCurrent(start, end, now) ? mEventLayoutBackgroundCurrent : mEventLayoutBackground);
+        canvas.drawRect(drawingRect, mPaint);
+    }
+
+    /**
+     * @return time when current highlight of an event changes next, Long.MAX_VALUE if it never does.
+     */
+    private static long getNextHighlightChange(long start, long end, long now) {
+        if (now < start) {
+            return start;
+        } else if (now <= end) {
+            return end + 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Draws a placeholder for each part of the time range of a channel that is not loaded yet.
+     */
+    private void drawPlaceholders(Canvas canvas, int channelPosition, long from, long to, EPGPagedData pagedData,
+                                  Rect drawingRect) {
+        mPaint.setColor(mEventLayoutBackgroundPlaceholder);
+
+        for (long pageStart = pagedData.getPageStart(from); pageStart < to; pageStart += pagedData.getPageMillis()) {
+            if (!pagedData.isLoaded(channelPosition, pageStart)) {
+                setEventDrawingRectangle(channelPosition, Math.max(pageStart, from),
+                        Math.min(pageStart + pagedData.getPageMillis(), to), drawingRect);
+                canvas.drawRect(drawingRect, mPaint);
+            }
+        }
+    }
+
+    private void drawEvent(final Canvas canvas, final int channelPosition, final long start, final long end,
+                           final String eventTitle, final long now, final Rect drawingRect) {
+
+        setEventDrawingRectangle(channelPosition, start, end, drawingRect);
+
+        if (mFrameStats != null) {
+            mFrameStats.countEvent();
+        }
 
         // Background
-        mPaint.setColor(event.isCurrent() ? mEventLayoutBackgroundCurrent : mEventLayoutBackground);
+        mPaint.setColor(isCurrent(start, end, now) ? mEventLayoutBackgroundCurrent : mEventLayoutBackground);
         canvas.drawRect(drawingRect, mPaint);
 
         // Add left and right inner padding
@@ -330,14 +736,14 @@ public class EPG extends ViewGroup {
         mPaint.setColor(mEventLayoutTextColor);
         mPaint.setTextSize(mEventLayoutTextSize);
 
+        // Fitted title and its vertical offset are cached since measuring is expensive
+        final int layout = mTextLayoutCache.get(channelPosition, start, eventTitle,
+                drawingRect.right - drawingRect.left, mPaint);
+
         // Move drawing.top so text will be centered (text is drawn bottom>up)
-        mPaint.getTextBounds(event.getTitle(), 0, event.getTitle().length(), mMeasuringRect);
-        drawingRect.top += (((drawingRect.bottom - drawingRect.top) / 2) + (mMeasuringRect.height()/2));
+        drawingRect.top += (((drawingRect.bottom - drawingRect.top) / 2) + mTextLayoutCache.getTextOffset(layout));
 
-        String title = event.getTitle();
-        title = title.substring(0,
-                mPaint.breakText(title, true, drawingRect.right - drawingRect.left, null));
-        canvas.drawText(title, drawingRect.left, drawingRect.top, mPaint);
+        canvas.drawText(mTextLayoutCache.getFittedTitle(layout), drawingRect.left, drawingRect.top, mPaint);
 
     }
 
@@ -375,36 +781,17 @@ public class EPG extends ViewGroup {
         // Loading channel image into target for
         final String imageURL = epgData.getChannel(position).getImageURL();
 
-        if (mChannelImageCache.containsKey(imageURL)) {
-            Bitmap image = mChannelImageCache.get(imageURL);
+        if (imageURL == null) {
+            return;
+        }
+
+        Bitmap image = mChannelImageCache.get(imageURL);
+        if (image != null) {
             drawingRect = getDrawingRectForChannelImage(drawingRect, image);
             canvas.drawBitmap(image, null, drawingRect, null);
         } else {
-            final int smallestSide = Math.min(mChannelLayoutHeight, mChannelLayoutWidth);
-
-            if (!mChannelImageTargetCache.containsKey(imageURL)) {
-                mChannelImageTargetCache.put(imageURL, new Target() {
-                    @Override
-                    public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-                        mChannelImageCache.put(imageURL, bitmap);
-                        redraw();
-                        mChannelImageTargetCache.remove(imageURL);
-                    }
-
-                    @Override
-                    public void onBitmapFailed(Drawable errorDrawable) {
-
-                    }
-
-                    @Override
-                    public void onPrepareLoad(Drawable placeHolderDrawable) {
-
-                    }
-                });
-
-                EPGUtil.loadImageInto(getContext(), imageURL, smallestSide, smallestSide, mChannelImageTargetCache.get(imageURL));
-            }
-
+            final int smallestSide = getChannelImageSize();
+            mChannelImageCache.load(imageURL, smallestSide, smallestSide, mChannelImageListener);
         }
     }
 
@@ -439,19 +826,265 @@ public class EPG extends ViewGroup {
         return now >= mTimeLowerBoundary && now < mTimeUpperBoundary;
     }
 
-    private boolean isEventVisible(final long start, final long end) {
-        return (start >= mTimeLowerBoundary && start <= mTimeUpperBoundary)
-                || (end >= mTimeLowerBoundary && end <= mTimeUpperBoundary)
-                || (start <= mTimeLowerBoundary && end >= mTimeUpperBoundary);
+    private void createTileCache() {
+        if (mTileCache != null) {
+            mTileCache.clear();
+        }
+
+        // Tiles hold whole channel rows so a band of channels maps to a row of tiles
+        final int rowHeight = mChannelLayoutHeight + mChannelLayoutMargin;
+        final int tileHeight = rowHeight * Math.max(1, TILE_WIDTH / rowHeight);
+        final int columns = getWidth() / TILE_WIDTH + 2;
+        final int rows = getHeight() / tileHeight + 2;
+
+        // Half a screen of spare tiles for scrolling back, within 1/8 of the app's memory but never
+        // fewer than are visible at once or every frame would render tiles again
+        final int visibleTiles = columns * rows;
+        final long tileBytes = TILE_WIDTH * (long) tileHeight * 4;
+        final ActivityManager activityManager =
+                (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        final long budgetBytes = activityManager.getMemoryClass() * 1024L * 1024L / 8;
+        final int maxTiles = (int) Math.max(visibleTiles, Math.min(visibleTiles * 3 / 2, budgetBytes / tileBytes));
+
+        mTileCache = new EPGTileCache(TILE_WIDTH, tileHeight, maxTiles);
+    }
+
+    /**
+     * Invalidate the event area of given channels, both inclusive, within given time range if visible.
+     * Coordinates passed to invalidate() are in scrolled content coordinates like everything drawn.
+     */
+    private void invalidateEvents(int firstChannelPosition, int lastChannelPosition, long from, long to) {
+        final int top = Math.max(getTopFrom(firstChannelPosition), getScrollY() + mTimeBarHeight);
+        final int bottom = Math.min(getTopFrom(lastChannelPosition) + mChannelLayoutHeight, getScrollY() + getHeight());
+        final int left = Math.max(getXFrom(Math.max(from, mTimeOffset)), getScrollX() + mChannelLayoutWidth + mChannelLayoutMargin);
+        final int right = Math.min(getXFrom(Math.min(to, getTimeWindowEnd())),
+                getScrollX() + getWidth());
+
+        if (top < bottom && left < right) {
+            invalidate(left, top, right, bottom);
+        }
+    }
+
+    /**
+     * Invalidate the channel cells showing given logo.
+     */
+    private void invalidateChannelImage(String imageURL) {
+        final int lastPos = getLastVisibleChannelPosition();
+        for (int pos = getFirstVisibleChannelPosition(); pos <= lastPos; pos++) {
+            if (imageURL.equals(epgData.getChannel(pos).getImageURL())) {
+                final int top = getTopFrom(pos);
+                invalidate(getScrollX(), top, getScrollX() + mChannelLayoutWidth, top + mChannelLayoutHeight);
+            }
+        }
+    }
+
+    /**
+     * Invalidate what changes when time moves from previousNow to now, the time line strip at both
+     * times and visible events whose current highlight differs between them.
+     * @return true if anything was invalidated.
+     */
+    private boolean invalidateTimeTick(long previousNow, long now) {
+        boolean invalidated = false;
+
+        if (getXFrom(previousNow) != getXFrom(now)) {
+            for (long time : new long[]{previousNow, now}) {
+                if (shouldDrawTimeLine(time)) {
+                    final int x = getXFrom(time);
+                    invalidate(x, getScrollY(), x + mTimeBarLineWidth, getScrollY() + getHeight());
+                    invalidated = true;
+                }
+            }
+        }
+
+        // Only events overlapping the time passed can change highlight
+        final long from = Math.min(previousNow, now);
+        final long to = Math.max(previousNow, now);
+        final int lastPos = getLastVisibleChannelPosition();
+        for (int pos = getFirstVisibleChannelPosition(); pos <= lastPos; pos++) {
+            if (mLevel >= 0) {
+                // Blocks are highlighted as a whole so they are invalidated as a whole
+                final EPGLevelOfDetail levelOfDetail = getLevelOfDetail();
+                final int lastItem = levelOfDetail.getLastItemPosition(pos, mLevel, to + 1);
+                for (int item = levelOfDetail.getFirstItemPosition(pos, mLevel, from - 1); item <= lastItem; item++) {
+                    invalidated |= invalidateHighlightChange(pos, levelOfDetail.getItemStart(pos, mLevel, item),
+                            levelOfDetail.getItemEnd(pos, mLevel, item), previousNow, now);
+                }
+            } else {
+                final int lastEvent = EPGEventSearch.getLastEventPosition(epgData, pos, to + 1);
+                for (int eventPos = EPGEventSearch.getFirstEventPosition(epgData, pos, from - 1); eventPos <= lastEvent; eventPos++) {
+                    invalidated |= invalidateHighlightChange(pos, getEventStart(pos, eventPos),
+                            getEventEnd(pos, eventPos), previousNow, now);
+                }
+            }
+        }
+        return invalidated;
+    }
+
+    private boolean invalidateHighlightChange(int channelPosition, long start, long end, long previousNow, long now) {
+        if (isCurrent(start, end, previousNow) != isCurrent(start, end, now)) {
+            invalidateEvents(channelPosition, channelPosition, start, end);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Schedule a tick for when drawn events change highlight next or the time line moves a pixel, so
+     * the guide stays correct while idle without redrawing on a fixed timer.
+     */
+    private void scheduleTimeTick(long now) {
+        long next = mNextHighlightChange;
+
+        // Window slides when a whole day has passed, retried while a scroll is ongoing
+        next = Math.min(next, Math.max(mTimeOffset + mDaysBackMillis + DAY_MILLIS, now + TIME_WINDOW_RETRY_MILLIS));
+
+        if (shouldDrawTimeLine(now)) {
+            // Time line moves when now reaches the first time of the next pixel
+            next = Math.min(next, getTimeFrom(getXFrom(now) - getTilesLeft() + 1));
+        }
+
+        removeCallbacks(mTimeTick);
+        if (next != Long.MAX_VALUE && next > now) {
+            postDelayed(mTimeTick, next - now);
+        }
+    }
+
+    private int getChannelsPerTile() {
+        return mTileCache.getTileHeight() / (mChannelLayoutHeight + mChannelLayoutMargin);
+    }
+
+    private void notifyViewportChanged(EPGPagedData pagedData) {
+        pagedData.onViewportChanged(getFirstVisibleChannelPosition(), getLastVisibleChannelPosition(),
+                mTimeLowerBoundary, mTimeUpperBoundary,
+                getScrollX() - mLastViewportScrollX, getScrollY() - mLastViewportScrollY);
+        mLastViewportScrollX = getScrollX();
+        mLastViewportScrollY = getScrollY();
+    }
+
+    /**
+     * Start loading logos and data for where the fling just started on mScroller ends. Scroll speed
+     * decreases towards the end of a fling so rows further than a screen from landing pass too fast to
+     * be seen, only rows within that screen are prefetched after the landing rows.
+     */
+    private void prefetchFlingLanding() {
+        final int finalX = mScroller.getFinalX() + mScrollerShiftX;
+        final int finalY = mScroller.getFinalY();
+        final int landingFirst = getFirstVisibleChannelPosition(finalY);
+        final int landingLast = getLastVisibleChannelPosition(finalY);
+        final int rowsPerScreen = landingLast - landingFirst + 1;
+
+        List<String> landingURLs = Lists.newArrayList();
+        for (int pos = landingFirst; pos <= landingLast; pos++) {
+            landingURLs.add(epgData.getChannel(pos).getImageURL());
+        }
+
+        // Rows passed before landing, nearest to landing first
+        List<String> passingURLs = Lists.newArrayList();
+        if (finalY > getScrollY()) {
+            final int first = Math.max(getLastVisibleChannelPosition() + 1, landingFirst - rowsPerScreen);
+            for (int pos = landingFirst - 1; pos >= first; pos--) {
+                passingURLs.add(epgData.getChannel(pos).getImageURL());
+            }
+        } else if (finalY < getScrollY()) {
+            final int last = Math.min(getFirstVisibleChannelPosition() - 1, landingLast + rowsPerScreen);
+            for (int pos = landingLast + 1; pos <= last; pos++) {
+                passingURLs.add(epgData.getChannel(pos).getImageURL());
+            }
+        }
+
+        mLogoPrefetcher.prefetch(landingURLs, passingURLs, getChannelImageSize(), getChannelImageSize());
+
+        if (epgData instanceof EPGPagedData) {
+            ((EPGPagedData) epgData).onFlingLanding(landingFirst, landingLast,
+                    getTimeFrom(finalX), getTimeFrom(finalX + getWidth()));
+        }
+        mFlingPrefetching = true;
+    }
+
+    /**
+     * Cancel prefetch of a fling that was stopped or has ended, logos of visible rows are still loaded.
+     */
+    private void stopFlingPrefetch() {
+        mFlingPrefetching = false;
+
+        Set<String> visibleURLs = Sets.newHashSet();
+        for (int pos = getFirstVisibleChannelPosition(); pos <= getLastVisibleChannelPosition(); pos++) {
+            visibleURLs.add(epgData.getChannel(pos).getImageURL());
+        }
+        mLogoPrefetcher.cancelExcept(visibleURLs);
+
+        if (epgData instanceof EPGPagedData) {
+            ((EPGPagedData) epgData).cancelFlingLanding();
+        }
+    }
+
+    private int getChannelImageSize() {
+        return Math.min(mChannelLayoutHeight, mChannelLayoutWidth);
+    }
+
+    private int getTilesLeft() {
+        return getXFrom(mTimeOffset);
+    }
+
+    private int getTilesTop() {
+        return mTimeBarHeight;
+    }
+
+    private static int floorDiv(int value, int divisor) {
+        int result = value / divisor;
+        return (value % divisor != 0 && (value < 0) != (divisor < 0)) ? result - 1 : result;
+    }
+
+    private boolean isCurrent(final long start, final long end, final long now) {
+        return now >= start && now <= end;
     }
 
     private long calculatedBaseLine() {
-        return LocalDateTime.now().toDateTime().minusMillis(DAYS_BACK_MILLIS).getMillis();
+        return LocalDateTime.now().toDateTime().getMillis() - mDaysBackMillis;
+    }
+
+    private long getTimeWindowEnd() {
+        return mTimeOffset + mDaysBackMillis + mDaysForwardMillis;
+    }
+
+    /**
+     * Move window forward by the whole days passed since it was set. Scroll position moves by the same number
+     * of pixels as content so nothing moves on screen, unless what is shown was in a day that was dropped.
+     * @return true if window moved.
+     */
+    private boolean slideTimeWindow(long now) {
+        final long days = (now - mDaysBackMillis - mTimeOffset) / DAY_MILLIS;
+        if (days <= 0 || !mScroller.isFinished()) {
+            return false;
+        }
+
+        // Offset moves by whole pixels so positions of everything still shown stays the same
+        final int dx = (int) Math.floor(days * DAY_MILLIS / mMillisPerPixel);
+        mTimeOffset = getTimeFrom(dx);
+        mLastViewportScrollX -= dx;
+        if (mTileCache != null) {
+            mTileCache.invalidateAll();
+        }
+        EPGUtil.prepareTimeLabels(mTimeOffset, getTimeWindowEnd(), TIME_LABEL_SPACING_MILLIS);
+
+        calculateMaxHorizontalScroll();
+        scrollTo(Math.max(0, Math.min(getScrollX() - dx, mMaxHorizontalScroll)), getScrollY());
+        notifyTimeWindowChanged();
+        invalidate();
+        return true;
+    }
+
+    private void notifyTimeWindowChanged() {
+        if (epgData instanceof EPGWindowedData) {
+            ((EPGWindowedData) epgData).onTimeWindowChanged(mTimeOffset, getTimeWindowEnd());
+        }
     }
 
     private int getFirstVisibleChannelPosition() {
-        final int y = getScrollY();
+        return getFirstVisibleChannelPosition(getScrollY());
+    }
 
+    private int getFirstVisibleChannelPosition(int y) {
         int position = (y - mChannelLayoutMargin - mTimeBarHeight)
                 / (mChannelLayoutHeight + mChannelLayoutMargin);
 
@@ -462,7 +1095,10 @@ public class EPG extends ViewGroup {
     }
 
     private int getLastVisibleChannelPosition() {
-        final int y = getScrollY();
+        return getLastVisibleChannelPosition(getScrollY());
+    }
+
+    private int getLastVisibleChannelPosition(int y) {
         final int totalChannelCount = epgData.getChannelCount();
         final int screenHeight = getHeight();
         int position = (y + screenHeight + mTimeBarHeight - mChannelLayoutMargin)
@@ -477,7 +1113,9 @@ public class EPG extends ViewGroup {
     }
 
     private void calculateMaxHorizontalScroll() {
-        mMaxHorizontalScroll = (int) ((DAYS_BACK_MILLIS + DAYS_FORWARD_MILLIS - HOURS_IN_VIEWPORT_MILLIS) / mMillisPerPixel);
+        // Window may be shorter than viewport while it is being loaded
+        mMaxHorizontalScroll = Math.max(0,
+                (int) ((mDaysBackMillis + mDaysForwardMillis - mViewportMillis) / mMillisPerPixel));
     }
 
     private void calculateMaxVerticalScroll() {
@@ -485,8 +1123,12 @@ public class EPG extends ViewGroup {
         mMaxVerticalScroll = maxVerticalScroll < getHeight() ? 0 : maxVerticalScroll - getHeight();
     }
 
+    /**
+     * Millis per pixel is fractional so positions don't drift over the days in the guide, x is the pixel
+     * time is within.
+     */
     private int getXFrom(long time) {
-        return (int) ((time - mTimeOffset) / mMillisPerPixel) + mChannelLayoutMargin
+        return (int) Math.floor((time - mTimeOffset) / mMillisPerPixel) + mChannelLayoutMargin
                 + mChannelLayoutWidth + mChannelLayoutMargin;
     }
 
@@ -496,21 +1138,57 @@ public class EPG extends ViewGroup {
         return y;
     }
 
+    /**
+     * @return first time within pixel x.
+     */
     private long getTimeFrom(int x) {
-        return (x * mMillisPerPixel) + mTimeOffset;
+        return (long) Math.ceil(x * mMillisPerPixel) + mTimeOffset;
     }
 
-    private long calculateMillisPerPixel() {
-        return HOURS_IN_VIEWPORT_MILLIS / (getResources().getDisplayMetrics().widthPixels - mChannelLayoutWidth - mChannelLayoutMargin);
+    private double calculateMillisPerPixel() {
+        return mViewportMillis / (double) (getResources().getDisplayMetrics().widthPixels - mChannelLayoutWidth - mChannelLayoutMargin);
+    }
+
+    /**
+     * @param now mFrameNow while drawing so the whole frame uses the same time.
+     */
+    private int getXPositionStart(long now) {
+        return getXFrom(now - (mViewportMillis / 2));
     }
 
-    private int getXPositionStart() {
-        return getXFrom(System.currentTimeMillis() - (HOURS_IN_VIEWPORT_MILLIS / 2));
+    private void setMillisPerPixel(double millisPerPixel) {
+        if (millisPerPixel != mMillisPerPixel) {
+            // Event widths changes with zoom so cached text layouts and tiles are no longer valid
+            mTextLayoutCache.clear();
+            if (mTileCache != null) {
+                mTileCache.invalidateAll();
+            }
+        }
+        mMillisPerPixel = millisPerPixel;
+        mLevel = EPGLevelOfDetail.getLevel(mEventMinWidth * millisPerPixel);
+        mTimeLabelSpacing = calculateTimeLabelSpacing();
+    }
+
+    /**
+     * @return smallest label spacing leaving room for a label between labels.
+     */
+    private long calculateTimeLabelSpacing() {
+        final double minSpacing = mTimeBarTextSize * 4 * mMillisPerPixel;
+        for (int spacing : TIME_LABEL_SPACINGS_MILLIS) {
+            if (spacing >= minSpacing) {
+                return spacing;
+            }
+        }
+        return TIME_LABEL_SPACINGS_MILLIS[TIME_LABEL_SPACINGS_MILLIS.length - 1];
     }
 
     private void resetBoundaries() {
-        mMillisPerPixel = calculateMillisPerPixel();
+        setMillisPerPixel(calculateMillisPerPixel());
         mTimeOffset = calculatedBaseLine();
+        if (mTileCache != null) {
+            mTileCache.invalidateAll();
+        }
+        EPGUtil.prepareTimeLabels(mTimeOffset, getTimeWindowEnd(), TIME_LABEL_SPACING_MILLIS);
         mTimeLowerBoundary = getTimeFrom(0);
         mTimeUpperBoundary = getTimeFrom(getWidth());
     }
@@ -550,19 +1228,251 @@ public class EPG extends ViewGroup {
     }
 
     private int getProgramPosition(int channelPosition, long time) {
+        return EPGEventSearch.getEventPosition(epgData, channelPosition, time);
+    }
+
+    private long getEventStart(int channelPosition, int programPosition) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getEventStart(channelPosition, programPosition);
+        }
+        return epgData.getEvent(channelPosition, programPosition).getStart();
+    }
+
+    private long getEventEnd(int channelPosition, int programPosition) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getEventEnd(channelPosition, programPosition);
+        }
+        return epgData.getEvent(channelPosition, programPosition).getEnd();
+    }
+
+    private String getEventTitle(int channelPosition, int programPosition) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getEventTitle(channelPosition, programPosition);
+        }
+        return epgData.getEvent(channelPosition, programPosition).getTitle();
+    }
+
+    private int getEventCount(int channelPosition) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getEventCount(channelPosition);
+        }
         List<EPGEvent> events = epgData.getEvents(channelPosition);
+        return events != null ? events.size() : 0;
+    }
 
-        if (events != null) {
+    /**
+     * @return position of the focused event, or -1 if there is no focus or the event is gone.
+     */
+    private int getFocusedEventPosition() {
+        if (mFocusedChannel == -1) {
+            return -1;
+        }
 
-            for (int eventPos = 0; eventPos < events.size(); eventPos++) {
-                EPGEvent event = events.get(eventPos);
+        // First event ending after focused start is the focused one, unless it was removed
+        final int position = EPGEventSearch.getFirstEventPosition(epgData, mFocusedChannel, mFocusedStart);
+        return position < getEventCount(mFocusedChannel)
+                && getEventStart(mFocusedChannel, position) == mFocusedStart ? position : -1;
+    }
 
-                if (event.getStart() <= time && event.getEnd() >= time) {
-                    return eventPos;
-                }
+    /**
+     * Move focus to previous (direction -1) or next (1) event on focused channel.
+     * @return true if focus moved.
+     */
+    private boolean focusAdjacentEvent(int direction) {
+        if (mFocusedChannel == -1) {
+            return focusInitialEvent();
+        }
+
+        final int position = direction < 0
+                // Last event ending at or before focused start
+                ? EPGEventSearch.getFirstEventPosition(epgData, mFocusedChannel, mFocusedStart) - 1
+                // First event ending after focused end
+                : EPGEventSearch.getFirstEventPosition(epgData, mFocusedChannel, mFocusedEnd);
+
+        if (position < 0 || position >= getEventCount(mFocusedChannel)) {
+            return false;
+        }
+
+        final long start = getEventStart(mFocusedChannel, position);
+        setFocus(mFocusedChannel, start, getEventEnd(mFocusedChannel, position),
+                Math.max(start, getTimeFrom(getTargetScrollX())));
+        return true;
+    }
+
+    /**
+     * Move focus to the event at focus time on previous (direction -1) or next (1) channel. If there is no
+     * event at that time the nearest one after it, or else before it, is focused.
+     * @return true if focus moved.
+     */
+    private boolean focusAdjacentChannel(int direction) {
+        if (mFocusedChannel == -1) {
+            return focusInitialEvent();
+        }
+
+        final int channelPosition = mFocusedChannel + direction;
+        return channelPosition >= 0 && channelPosition < epgData.getChannelCount()
+                && focusEventAt(channelPosition, mFocusTime);
+    }
+
+    /**
+     * Focus the event at current time, or at left edge if current time is not shown, on first visible
+     * channel having events.
+     */
+    private boolean focusInitialEvent() {
+        final long focusTime = shouldDrawTimeLine(mFrameNow) ? mFrameNow : getTimeFrom(getScrollX());
+
+        for (int pos = getFirstVisibleChannelPosition(); pos < epgData.getChannelCount(); pos++) {
+            if (focusEventAt(pos, focusTime)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if channel has no events.
+     */
+    private boolean focusEventAt(int channelPosition, long focusTime) {
+        final int eventCount = getEventCount(channelPosition);
+        if (eventCount == 0) {
+            return false;
+        }
+
+        int position = EPGEventSearch.getEventPosition(epgData, channelPosition, focusTime);
+        if (position == -1) {
+            position = Math.min(EPGEventSearch.getFirstEventPosition(epgData, channelPosition, focusTime),
+                    eventCount - 1);
+        }
+
+        setFocus(channelPosition, getEventStart(channelPosition, position),
+                getEventEnd(channelPosition, position), focusTime);
+        return true;
+    }
+
+    private boolean clickFocusedEvent() {
+        final int position = getFocusedEventPosition();
+        if (position == -1 || mClickListener == null) {
+            return false;
+        }
+
+        mClickListener.onEventClicked(mFocusedChannel, position, epgData.getEvent(mFocusedChannel, position));
+        return true;
+    }
+
+    /**
+     * Move focus and redraw only the old and new focus outline, scrolls if new focus is not fully visible.
+     */
+    private void setFocus(int channelPosition, long start, long end, long focusTime) {
+        if (mFocusedChannel != -1) {
+            invalidateFocus();
+        }
+
+        mFocusedChannel = channelPosition;
+        mFocusedStart = start;
+        mFocusedEnd = end;
+        mFocusTime = focusTime;
+
+        invalidateFocus();
+        scrollToFocus();
+    }
+
+    /**
+     * @param rect set to focused event rectangle in content coordinates, including outline.
+     */
+    private void getFocusRect(Rect rect) {
+        setEventDrawingRectangle(mFocusedChannel, mFocusedStart, mFocusedEnd, rect);
+        rect.inset(-mEventLayoutFocusWidth / 2, -mEventLayoutFocusWidth / 2);
+    }
+
+    private void invalidateFocus() {
+        getFocusRect(mFocusRect);
+        invalidate(mFocusRect.left - 1, mFocusRect.top - 1, mFocusRect.right + 1, mFocusRect.bottom + 1);
+    }
+
+    /**
+     * Smooth scroll so focused event is within program area. Events wider than the area are aligned to
+     * its left edge. Scrolling continues from where an ongoing scroll ends so repeated key presses add up.
+     */
+    private void scrollToFocus() {
+        getFocusRect(mFocusRect);
+
+        final int scrollX = getTargetScrollX();
+        final int scrollY = getTargetScrollY();
+        final int programLeft = scrollX + mChannelLayoutWidth + mChannelLayoutMargin;
+        final int programTop = scrollY + mTimeBarHeight;
+
+        int dx = 0;
+        if (mFocusRect.left < programLeft) {
+            dx = mFocusRect.left - programLeft;
+        } else if (mFocusRect.right > scrollX + getWidth()) {
+            dx = Math.min(mFocusRect.right - scrollX - getWidth(), mFocusRect.left - programLeft);
+        }
+
+        int dy = 0;
+        if (mFocusRect.top < programTop) {
+            dy = mFocusRect.top - programTop;
+        } else if (mFocusRect.bottom > scrollY + getHeight()) {
+            dy = mFocusRect.bottom - scrollY - getHeight();
+        }
+
+        final int targetX = Math.max(0, Math.min(scrollX + dx, mMaxHorizontalScroll));
+        final int targetY = Math.max(0, Math.min(scrollY + dy, mMaxVerticalScroll));
+        if (targetX != scrollX || targetY != scrollY) {
+            mScrollerShiftX = 0;
+            mScroller.startScroll(getScrollX(), getScrollY(), targetX - getScrollX(), targetY - getScrollY(),
+                    FOCUS_SCROLL_DURATION);
+            invalidate();
+        }
+    }
+
+    /**
+     * Levels are built on first use, channel count of mutable data may have changed since then.
+     */
+    private EPGLevelOfDetail getLevelOfDetail() {
+        if (mLevelOfDetail == null || mLevelOfDetail.getChannelCount() != epgData.getChannelCount()) {
+            mLevelOfDetail = new EPGLevelOfDetail(epgData);
+        }
+        return mLevelOfDetail;
+    }
+
+    /**
+     * Change zoom keeping the time at focusX, in view coordinates, in place.
+     */
+    private void zoom(long viewportMillis, float focusX) {
+        viewportMillis = Math.max(MIN_VIEWPORT_MILLIS, Math.min(viewportMillis, MAX_VIEWPORT_MILLIS));
+        if (viewportMillis == mViewportMillis) {
+            return;
+        }
+
+        if (epgData == null || !epgData.hasData()) {
+            // Applied by resetBoundaries() when there is something to draw
+            mViewportMillis = viewportMillis;
+            return;
+        }
+
+        if (!mScroller.isFinished()) {
+            mScroller.forceFinished(true);
+            if (mFlingPrefetching) {
+                stopFlingPrefetch();
             }
         }
-        return -1;
+
+        final long focusTime = getTimeFrom(getScrollX() + (int) focusX - getTilesLeft());
+        mViewportMillis = viewportMillis;
+        setMillisPerPixel(calculateMillisPerPixel());
+        calculateMaxHorizontalScroll();
+
+        final int scrollX = getXFrom(focusTime) - (int) focusX;
+        scrollTo(Math.max(0, Math.min(scrollX, mMaxHorizontalScroll)), getScrollY());
+        invalidate();
+    }
+
+    private int getTargetScrollX() {
+        return mScroller.isFinished() ? getScrollX() : mScroller.getFinalX() + mScrollerShiftX;
+    }
+
+    private int getTargetScrollY() {
+        return mScroller.isFinished() ? getScrollY() : mScroller.getFinalY();
     }
 
     /**
@@ -578,7 +1488,57 @@ public class EPG extends ViewGroup {
      * @param epgData pass in any implementation of EPGData.
      */
     public void setEPGData(EPGData epgData) {
+        if (this.epgData instanceof EPGObservableData) {
+            ((EPGObservableData) this.epgData).setDataObserver(null);
+        }
+        if (epgData instanceof EPGObservableData) {
+            ((EPGObservableData) epgData).setDataObserver(mDataObserver);
+        }
+
+        // Only a different number of channels changes the shape of what is laid out
+        final boolean shapeChanged = this.epgData == null || epgData == null
+                || this.epgData.getChannelCount() != epgData.getChannelCount();
+
         this.epgData = epgData;
+        mFocusedChannel = -1;
+        mLevelOfDetail = null;
+        notifyTimeWindowChanged();
+        mTextLayoutCache.clear();
+        if (mTileCache != null) {
+            mTileCache.invalidateAll();
+        }
+
+        if (shapeChanged) {
+            // E.g. switching to a view with fewer channels, keep scroll within the new channel list
+            if (epgData != null && epgData.hasData()) {
+                calculateMaxVerticalScroll();
+                if (getScrollY() > mMaxVerticalScroll) {
+                    scrollTo(getScrollX(), mMaxVerticalScroll);
+                }
+            }
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * Render program grid into bitmap tiles that are reused while scrolling instead of drawing every
+     * event on every frame. Scrolling gets cheaper but the tiles cost a lot of memory: tiles at the edges
+     * are only partly visible, so at 1080p a screen takes about 20 ARGB_8888 tiles of about 0.9 MB. Up to
+     * 1.5 times the visible tiles are kept, bounded by 1/8 of the app's memory class but never fewer than
+     * are visible, so about 18-27 MB at 1080p. Leave disabled on low memory devices.
+     * @param enabled true to draw events through the tile cache.
+     */
+    public void setTileCacheEnabled(boolean enabled) {
+        mTileCacheEnabled = enabled;
+
+        if (enabled && mTileCache == null && getWidth() > 0) {
+            createTileCache();
+        } else if (!enabled && mTileCache != null) {
+            mTileCache.clear();
+            mTileCache = null;
+        }
+        invalidate();
     }
 
     /**
@@ -589,24 +1549,81 @@ public class EPG extends ViewGroup {
     public void recalculateAndRedraw(boolean withAnimation) {
         if (epgData != null && epgData.hasData()) {
             resetBoundaries();
+            notifyTimeWindowChanged();
 
             calculateMaxVerticalScroll();
             calculateMaxHorizontalScroll();
 
+            mScrollerShiftX = 0;
             mScroller.startScroll(getScrollX(), getScrollY(),
-                    getXPositionStart() - getScrollX(),
+                    getXPositionStart(System.currentTimeMillis()) - getScrollX(),
                     0, withAnimation ? 600 : 0);
 
-            redraw();
+            invalidate();
+        }
+    }
+
+    /**
+     * Focus the event at given time on a channel and scroll to it, e.g. a hit from EPGSearchIndex.
+     * @param channelPosition position in the data set, use EPGFilteredData.getViewPosition() for hits of
+     *                        an index over the store of a filtered view.
+     * @return false if channel has no events.
+     */
+    public boolean scrollToEvent(int channelPosition, long time) {
+        if (epgData == null || channelPosition < 0 || channelPosition >= epgData.getChannelCount()) {
+            return false;
         }
+        return focusEventAt(channelPosition, time);
     }
 
     /**
-     * Does a invalidate() and requestLayout() which causes a redraw of screen.
+     * Set time range that can be scrolled to, relative to now. The window slides forward a day at a time as
+     * time passes, data implementing EPGWindowedData is told so it can drop past days and load new ones.
+     * What is shown keeps its position if still within the window, a running scroll or fling continues
+     * towards the same time.
+     * @param daysBackMillis time before now, DAYS_BACK_MILLIS by default.
+     * @param daysForwardMillis time after now, DAYS_FORWARD_MILLIS by default.
+     */
+    public void setTimeWindow(long daysBackMillis, long daysForwardMillis) {
+        mDaysBackMillis = daysBackMillis;
+        mDaysForwardMillis = daysForwardMillis;
+
+        if (epgData != null && epgData.hasData()) {
+            final long time = getTimeFrom(getScrollX());
+            final long targetTime = getTimeFrom(getTargetScrollX());
+            resetBoundaries();
+            calculateMaxHorizontalScroll();
+
+            if (!mScroller.isFinished()) {
+                // Shift the scroll instead of stopping it, e.g. the scroll to now of recalculateAndRedraw()
+                mScrollerShiftX += getXFrom(targetTime) - getTilesLeft() - getTargetScrollX();
+            }
+            scrollTo(Math.max(0, Math.min(getXFrom(time) - getTilesLeft(), mMaxHorizontalScroll)), getScrollY());
+            notifyTimeWindowChanged();
+            invalidate();
+        }
+    }
+
+    /**
+     * Zoom so given time fits the program area, between MIN_VIEWPORT_MILLIS and MAX_VIEWPORT_MILLIS.
+     * The time in the middle of the program area stays in place. Zooming is also done by pinching.
+     * @param viewportMillis time shown in program area, HOURS_IN_VIEWPORT_MILLIS by default.
+     */
+    public void setViewportMillis(long viewportMillis) {
+        final int programLeft = mChannelLayoutWidth + mChannelLayoutMargin;
+        zoom(viewportMillis, programLeft + (getWidth() - programLeft) / 2f);
+    }
+
+    public long getViewportMillis() {
+        return mViewportMillis;
+    }
+
+    /**
+     * Does an invalidate() which causes a redraw of screen. Layout does not depend on what is drawn so no
+     * layout pass is requested.
      */
     public void redraw() {
         invalidate();
-        requestLayout();
     }
 
     /**
@@ -617,6 +1634,105 @@ public class EPG extends ViewGroup {
         mChannelImageCache.clear();
     }
 
+    /**
+     * Enable recording of frame timing, events drawn and cache hit rates. Off by default since it adds
+     * some overhead to each frame.
+     */
+    public void setFrameStatsEnabled(boolean enabled) {
+        if (enabled && mFrameStats == null) {
+            mFrameStats = new EPGFrameStats();
+        } else if (!enabled) {
+            mFrameStats = null;
+            mFrameStatsOverlayEnabled = false;
+        }
+        invalidate();
+    }
+
+    /**
+     * @return recorded frame stats, or null if not enabled.
+     */
+    public EPGFrameStats getFrameStats() {
+        return mFrameStats;
+    }
+
+    /**
+     * Show frame stats on top of the EPG, enables frame stats if needed. For debugging only.
+     */
+    public void setFrameStatsOverlayEnabled(boolean enabled) {
+        if (enabled) {
+            setFrameStatsEnabled(true);
+        }
+        mFrameStatsOverlayEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * @return channel image cache, e.g. to log its hit rate.
+     */
+    public EPGImageCache getEPGImageCache() {
+        return mChannelImageCache;
+    }
+
+
+    private class TimeTick implements Runnable {
+
+        @Override
+        public void run() {
+            if (epgData == null || !epgData.hasData()) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (slideTimeWindow(now)) {
+                // Everything is redrawn
+                return;
+            }
+            if (!invalidateTimeTick(mFrameNow, now)) {
+                // Nothing changed yet, e.g. the tick came early, wait for the same change again
+                scheduleTimeTick(now);
+            }
+        }
+    }
+
+    private class ChannelImageListener implements EPGImageCache.Listener {
+
+        @Override
+        public void onImageLoaded(String url) {
+            if (epgData != null && epgData.hasData()) {
+                invalidateChannelImage(url);
+            }
+        }
+
+        @Override
+        public void onImageFailed(String url) {
+
+        }
+    }
+
+    private class DataObserver implements EPGDataObserver {
+
+        @Override
+        public void onEventsChanged(int firstChannelPosition, int lastChannelPosition, long from, long to) {
+            if (mLevelOfDetail != null) {
+                mLevelOfDetail.invalidateChannels(firstChannelPosition, lastChannelPosition);
+            }
+            if (mTileCache != null) {
+                mTileCache.invalidateChannelBands(firstChannelPosition / getChannelsPerTile(),
+                        lastChannelPosition / getChannelsPerTile());
+            }
+            invalidateEvents(firstChannelPosition, lastChannelPosition, from, to);
+        }
+    }
+
+    private class OnScaleGestureListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            // Spreading fingers zooms in, showing less time
+            zoom(Math.round(mViewportMillis / (double) detector.getScaleFactor()), detector.getFocusX());
+            return true;
+        }
+    }
 
     private class OnGestureListener extends GestureDetector.SimpleOnGestureListener {
 
@@ -682,10 +1798,15 @@ public class EPG extends ViewGroup {
         public boolean onFling(MotionEvent e1, MotionEvent e2,
                                float vX, float vY) {
 
+            mScrollerShiftX = 0;
             mScroller.fling(getScrollX(), getScrollY(), -(int) vX,
                     -(int) vY, 0, mMaxHorizontalScroll, 0, mMaxVerticalScroll);
 
-            redraw();
+            if (epgData != null && epgData.hasData()) {
+                prefetchFlingLanding();
+            }
+
+            invalidate();
             return true;
         }
 
@@ -693,6 +1814,9 @@ public class EPG extends ViewGroup {
         public boolean onDown(MotionEvent e) {
             if (!mScroller.isFinished()) {
                 mScroller.forceFinished(true);
+                if (mFlingPrefetching) {
+                    stopFlingPrefetch();
+                }
                 return true;
             }
             return true;
@@ -0,0 +1,12 @@
+package se.kmdev.tvepg.epg;
+
+/**
+ * Notified by EPGObservableData when events change after the data was passed to EPG.
+ */
+public interface EPGDataObserver {
+
+    /**
+     * Events of given channels, both inclusive, changed within given time range. Called on main thread.
+     */
+    void onEventsChanged(int firstChannelPosition, int lastChannelPosition, long from, long to);
+}
@@ -0,0 +1,42 @@
+package se.kmdev.tvepg.epg;
+
+import se.kmdev.tvepg.epg.misc.EPGTitleDictionary;
+
+/**
+ * Optional extension of EPGData for implementations that can answer time range queries
+ * without walking the whole event list of a channel. Events of each channel are expected to be sorted by
+ * start time and not overlap. EPG falls back to a binary search over getEvents() for plain
+ * EPGData implementations, see EPGEventSearch.
+ */
+public interface EPGIndexedData extends EPGData {
+
+    /**
+     * @return number of events for given channel.
+     */
+    int getEventCount(int channelPosition);
+
+    /*
+     * Accessors for single fields, lets EPG draw without requiring an EPGEvent object per event.
+     */
+
+    long getEventStart(int channelPosition, int programPosition);
+
+    long getEventEnd(int channelPosition, int programPosition);
+
+    String getEventTitle(int channelPosition, int programPosition);
+
+    /**
+     * @return dictionary holding the distinct titles of this data.
+     */
+    EPGTitleDictionary getTitleDictionary();
+
+    /**
+     * @return position of first event on channel that ends after given time or getEventCount() if there is none.
+     */
+    int getFirstEventPosition(int channelPosition, long from);
+
+    /**
+     * @return position of last event on channel that starts before given time or -1 if there is none.
+     */
+    int getLastEventPosition(int channelPosition, long to);
+}
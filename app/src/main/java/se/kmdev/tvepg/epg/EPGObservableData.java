@@ -0,0 +1,13 @@
+package se.kmdev.tvepg.epg;
+
+/**
+ * Implemented by EPGData that can change after being passed to EPG, e.g. data loaded in pages.
+ * EPG registers itself as observer in setEPGData() and redraws the affected channels on change.
+ */
+public interface EPGObservableData {
+
+    /**
+     * @param observer to notify on change or null to remove current observer.
+     */
+    void setDataObserver(EPGDataObserver observer);
+}
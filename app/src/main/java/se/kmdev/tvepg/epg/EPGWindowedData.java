@@ -0,0 +1,15 @@
+package se.kmdev.tvepg.epg;
+
+/**
+ * Implemented by EPGData that only holds the time window EPG can show. The window slides forward a day at a
+ * time as time passes, EPG reports it so data can drop days that are no longer reachable and load new ones.
+ */
+public interface EPGWindowedData {
+
+    /**
+     * Called on main thread when the data is set and whenever the window changes.
+     * @param from start of window.
+     * @param to end of window.
+     */
+    void onTimeWindowChanged(long from, long to);
+}
@@ -28,7 +28,13 @@ public class EPGEvent {
     }
 
     public boolean isCurrent() {
-        long now = System.currentTimeMillis();
+        return isCurrent(System.currentTimeMillis());
+    }
+
+    /**
+     * @param now current time, pass the same value for everything shown at once.
+     */
+    public boolean isCurrent(long now) {
         return now >= start && now <= end;
     }
 }
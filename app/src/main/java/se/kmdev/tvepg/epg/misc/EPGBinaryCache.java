@@ -0,0 +1,170 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+
+/**
+ * Compact binary on-disk format for a guide, written after ingest and opened memory mapped through
+ * EPGMappedData so starting the app does not depend on the size of the guide.
+ *
+ * Layout, all numbers big endian:
+ * <pre>
+ * header       magic, version, channel count, event count, title count, channel string count, created millis
+ * channels     per channel: first event, event count, id string, name string, image url string (-1 if null)
+ * padding      to 8 bytes
+ * starts       long per event, channel by channel, sorted by start within a channel
+ * ends         long per event
+ * title ids    int per event, index into title pool
+ * title pool   int offset per title plus end offset, followed by UTF-8 bytes
+ * string pool  same layout as title pool, holds the channel strings
+ * </pre>
+ */
+public class EPGBinaryCache {
+
+    static final int MAGIC = 0x45504731;    // "EPG1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 6 * 4 + 8;
+    static final int CHANNEL_SIZE = 5 * 4;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Write data to file. Data is written to a temporary file first and renamed when complete so
+     * a half written cache is never opened.
+     */
+    public static void write(EPGIndexedData epgData, File file) throws IOException {
+        final int channelCount = epgData.getChannelCount();
+        int eventCount = 0;
+        for (int i = 0; i < channelCount; i++) {
+            eventCount += epgData.getEventCount(i);
+        }
+
+        // Titles and channel strings are deduplicated into two pools
+        EPGTitleDictionary titles = new EPGTitleDictionary();
+        EPGTitleDictionary strings = new EPGTitleDictionary();
+        int[] channelStrings = new int[channelCount * 3];
+        for (int i = 0; i < channelCount; i++) {
+            EPGChannel channel = epgData.getChannel(i);
+            channelStrings[i * 3] = stringId(strings, channel.getChannelID());
+            channelStrings[i * 3 + 1] = stringId(strings, channel.getName());
+            channelStrings[i * 3 + 2] = stringId(strings, channel.getImageURL());
+        }
+        int[] titleIds = new int[eventCount];
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(channelCount);
+            out.writeInt(eventCount);
+
+            // Title ids must be known before writing the header so collect them first
+            int event = 0;
+            for (int i = 0; i < channelCount; i++) {
+                for (int pos = 0; pos < epgData.getEventCount(i); pos++) {
+                    final String title = epgData.getEventTitle(i, pos);
+                    titleIds[event++] = titles.getId(title != null ? title : "");
+                }
+            }
+
+            out.writeInt(titles.size());
+            out.writeInt(strings.size());
+            out.writeLong(System.currentTimeMillis());
+
+            int firstEvent = 0;
+            for (int i = 0; i < channelCount; i++) {
+                out.writeInt(firstEvent);
+                out.writeInt(epgData.getEventCount(i));
+                out.writeInt(channelStrings[i * 3]);
+                out.writeInt(channelStrings[i * 3 + 1]);
+                out.writeInt(channelStrings[i * 3 + 2]);
+                firstEvent += epgData.getEventCount(i);
+            }
+
+            for (int i = 0; i < padding(HEADER_SIZE + channelCount * CHANNEL_SIZE); i++) {
+                out.writeByte(0);
+            }
+
+            for (int i = 0; i < channelCount; i++) {
+                for (int pos = 0; pos < epgData.getEventCount(i); pos++) {
+                    out.writeLong(epgData.getEventStart(i, pos));
+                }
+            }
+            for (int i = 0; i < channelCount; i++) {
+                for (int pos = 0; pos < epgData.getEventCount(i); pos++) {
+                    out.writeLong(epgData.getEventEnd(i, pos));
+                }
+            }
+            for (int titleId : titleIds) {
+                out.writeInt(titleId);
+            }
+
+            writePool(out, titles);
+            writePool(out, strings);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Open a cache written by write().
+     * @throws IOException if file can't be read or is not a valid cache.
+     */
+    public static EPGMappedData open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // Mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new EPGMappedData(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @return true if file exists and was written less than maxAgeMillis ago.
+     */
+    public static boolean isFresh(File file, long maxAgeMillis) {
+        return file.exists() && System.currentTimeMillis() - file.lastModified() < maxAgeMillis;
+    }
+
+    static int padding(int offset) {
+        return (8 - (offset % 8)) % 8;
+    }
+
+    private static int stringId(EPGTitleDictionary strings, String string) {
+        return string == null ? -1 : strings.getId(string);
+    }
+
+    private static void writePool(DataOutputStream out, EPGTitleDictionary pool) throws IOException {
+        byte[][] encoded = new byte[pool.size()][];
+        int offset = 0;
+        for (int i = 0; i < pool.size(); i++) {
+            encoded[i] = pool.getTitle(i).getBytes(UTF_8);
+            out.writeInt(offset);
+            offset += encoded[i].length;
+        }
+        out.writeInt(offset);
+
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * EPGData that stores the schedule of each channel as parallel primitive arrays instead of one
+ * EPGEvent object per program. Start and end times are kept in long[], titles as ids into a shared
+ * EPGTitleDictionary. EPGEvent objects are only created when asked for through getEvent() or getEvents(),
+ * EPG itself draws straight from the arrays.
+ * Data is immutable once built, use the Builder to add data in any order or pass a Map like for EPGDataImpl.
+ */
+public class EPGColumnarData implements EPGIndexedData {
+
+    private final EPGChannel[] channels;
+    private final long[][] starts;
+    private final long[][] ends;
+    private final int[][] titleIds;
+    private final EPGTitleDictionary titleDictionary;
+
+    public EPGColumnarData(Map<EPGChannel, List<EPGEvent>> data) {
+        this(new Builder().addAll(data));
+    }
+
+    private EPGColumnarData(Builder builder) {
+        final int channelCount = builder.channels.size();
+        channels = builder.channels.toArray(new EPGChannel[channelCount]);
+        starts = new long[channelCount][];
+        ends = new long[channelCount][];
+        titleIds = new int[channelCount][];
+
+        for (int i = 0; i < channelCount; i++) {
+            final int count = builder.eventCounts[i];
+            if (builder.normalizer != null) {
+                final EPGScheduleNormalizer.Schedule schedule = builder.normalizer.normalize(
+                        builder.starts[i], builder.ends[i], builder.titleIds[i], count, builder.titleDictionary);
+                starts[i] = schedule.getStarts();
+                ends[i] = schedule.getEnds();
+                titleIds[i] = schedule.getTitleIds();
+                continue;
+            }
+
+            starts[i] = Arrays.copyOf(builder.starts[i], count);
+            ends[i] = Arrays.copyOf(builder.ends[i], count);
+            titleIds[i] = Arrays.copyOf(builder.titleIds[i], count);
+            sortByStart(starts[i], ends[i], titleIds[i], 0, count - 1);
+        }
+
+        titleDictionary = builder.titleDictionary;
+    }
+
+    /**
+     * Store from arrays already packed and sorted per channel, see EPGParallelIngest.
+     */
+    EPGColumnarData(EPGChannel[] channels, long[][] starts, long[][] ends, int[][] titleIds,
+                    EPGTitleDictionary titleDictionary) {
+        this.channels = channels;
+        this.starts = starts;
+        this.ends = ends;
+        this.titleIds = titleIds;
+        this.titleDictionary = titleDictionary;
+    }
+
+    @Override
+    public EPGChannel getChannel(int position) {
+        return channels[position];
+    }
+
+    @Override
+    public List<EPGEvent> getEvents(int channelPosition) {
+        return new EventList(channelPosition);
+    }
+
+    @Override
+    public EPGEvent getEvent(int channelPosition, int programPosition) {
+        return new EPGEvent(starts[channelPosition][programPosition],
+                ends[channelPosition][programPosition],
+                titleDictionary.getTitle(titleIds[channelPosition][programPosition]));
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    @Override
+    public boolean hasData() {
+        return channels.length > 0;
+    }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return starts[channelPosition].length;
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return starts[channelPosition][programPosition];
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return ends[channelPosition][programPosition];
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return titleDictionary.getTitle(titleIds[channelPosition][programPosition]);
+    }
+
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        return titleDictionary;
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        final long[] channelEnds = ends[channelPosition];
+        int low = 0;
+        int high = channelEnds.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (channelEnds[mid] > from) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        final long[] channelStarts = starts[channelPosition];
+        int low = 0;
+        int high = channelStarts.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (channelStarts[mid] < to) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * @return estimated heap used by this store including channels and titles.
+     */
+    public long getEstimatedHeapBytes() {
+        Map<Object, Boolean> counted = EPGHeapEstimate.newCountedSet();
+        long bytes = EPGHeapEstimate.object(5 * EPGHeapEstimate.REFERENCE);
+        bytes += EPGHeapEstimate.array(channels.length, EPGHeapEstimate.REFERENCE);
+        bytes += EPGHeapEstimate.channels(this, counted);
+        bytes += 3 * EPGHeapEstimate.array(channels.length, EPGHeapEstimate.REFERENCE);
+
+        for (int i = 0; i < channels.length; i++) {
+            bytes += 2 * EPGHeapEstimate.array(starts[i].length, 8);
+            bytes += EPGHeapEstimate.array(titleIds[i].length, 4);
+        }
+
+        bytes += titleDictionary.getEstimatedHeapBytes(counted);
+        return bytes;
+    }
+
+    static void sortByStart(long[] starts, long[] ends, int[] titleIds, int low, int high) {
+        while (low < high) {
+            // Feeds are almost always sorted already, check that before doing any work.
+            if (isSorted(starts, low, high)) {
+                return;
+            }
+
+            final long pivot = starts[(low + high) >>> 1];
+            int i = low;
+            int j = high;
+
+            while (i <= j) {
+                while (starts[i] < pivot) {
+                    i++;
+                }
+                while (starts[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(starts, ends, titleIds, i++, j--);
+                }
+            }
+
+            // Recurse into the smaller half and loop on the bigger one to keep the stack shallow
+            if (j - low < high - i) {
+                sortByStart(starts, ends, titleIds, low, j);
+                low = i;
+            } else {
+                sortByStart(starts, ends, titleIds, i, high);
+                high = j;
+            }
+        }
+    }
+
+    static boolean isSorted(long[] starts, int low, int high) {
+        for (int i = low; i < high; i++) {
+            if (starts[i] > starts[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void swap(long[] starts, long[] ends, int[] titleIds, int a, int b) {
+        long start = starts[a];
+        starts[a] = starts[b];
+        starts[b] = start;
+
+        long end = ends[a];
+        ends[a] = ends[b];
+        ends[b] = end;
+
+        int titleId = titleIds[a];
+        titleIds[a] = titleIds[b];
+        titleIds[b] = titleId;
+    }
+
+    /**
+     * Read only list creating EPGEvent objects on access.
+     */
+    private class EventList extends AbstractList<EPGEvent> implements RandomAccess {
+
+        private final int channelPosition;
+
+        EventList(int channelPosition) {
+            this.channelPosition = channelPosition;
+        }
+
+        @Override
+        public EPGEvent get(int location) {
+            return getEvent(channelPosition, location);
+        }
+
+        @Override
+        public int size() {
+            return starts[channelPosition].length;
+        }
+    }
+
+    /**
+     * Collects channels and events into growable primitive arrays. Events can be added in any order,
+     * they are sorted per channel when building.
+     */
+    public static class Builder {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final List<EPGChannel> channels = Lists.newArrayList();
+        private final EPGTitleDictionary titleDictionary;
+        private EPGScheduleNormalizer normalizer;
+
+        private long[][] starts = new long[INITIAL_CAPACITY][];
+        private long[][] ends = new long[INITIAL_CAPACITY][];
+        private int[][] titleIds = new int[INITIAL_CAPACITY][];
+        private int[] eventCounts = new int[INITIAL_CAPACITY];
+
+        public Builder() {
+            this(new EPGTitleDictionary());
+        }
+
+        /**
+         * @param titleDictionary dictionary to intern titles into, can be shared between stores.
+         */
+        public Builder(EPGTitleDictionary titleDictionary) {
+            this.titleDictionary = titleDictionary;
+        }
+
+        /**
+         * @return position of the added channel to be used when adding events.
+         */
+        public int addChannel(EPGChannel channel) {
+            final int position = channels.size();
+
+            if (position == eventCounts.length) {
+                final int capacity = position * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                titleIds = Arrays.copyOf(titleIds, capacity);
+                eventCounts = Arrays.copyOf(eventCounts, capacity);
+            }
+
+            channels.add(channel);
+            starts[position] = new long[INITIAL_CAPACITY];
+            ends[position] = new long[INITIAL_CAPACITY];
+            titleIds[position] = new int[INITIAL_CAPACITY];
+            return position;
+        }
+
+        public Builder addEvent(int channelPosition, long start, long end, String title) {
+            final int count = eventCounts[channelPosition];
+
+            if (count == starts[channelPosition].length) {
+                final int capacity = count * 2;
+                starts[channelPosition] = Arrays.copyOf(starts[channelPosition], capacity);
+                ends[channelPosition] = Arrays.copyOf(ends[channelPosition], capacity);
+                titleIds[channelPosition] = Arrays.copyOf(titleIds[channelPosition], capacity);
+            }
+
+            starts[channelPosition][count] = start;
+            ends[channelPosition][count] = end;
+            titleIds[channelPosition][count] = titleDictionary.getId(title);
+            eventCounts[channelPosition] = count + 1;
+            return this;
+        }
+
+        public Builder addAll(Map<EPGChannel, List<EPGEvent>> data) {
+            for (Map.Entry<EPGChannel, List<EPGEvent>> entry : data.entrySet()) {
+                final int position = addChannel(entry.getKey());
+                for (EPGEvent event : entry.getValue()) {
+                    addEvent(position, event.getStart(), event.getEnd(), event.getTitle());
+                }
+            }
+            return this;
+        }
+
+        public int getChannelCount() {
+            return channels.size();
+        }
+
+        /**
+         * @param normalizer to remove overlaps and duplicates and fill gaps when building, null to only sort.
+         */
+        public Builder setNormalizer(EPGScheduleNormalizer normalizer) {
+            this.normalizer = normalizer;
+            return this;
+        }
+
+        public EPGColumnarData build() {
+            return new EPGColumnarData(this);
+        }
+    }
+}
@@ -5,7 +5,7 @@ import com.google.common.collect.Lists;
 import java.util.List;
 import java.util.Map;
 
-import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.EPGIndexedData;
 import se.kmdev.tvepg.epg.domain.EPGChannel;
 import se.kmdev.tvepg.epg.domain.EPGEvent;
 
@@ -13,14 +13,33 @@ import se.kmdev.tvepg.epg.domain.EPGEvent;
  * TODO: Add null check when fetching at position etc.
  * Created by Kristoffer on 15-05-23.
  */
-public class EPGDataImpl implements EPGData {
+public class EPGDataImpl implements EPGIndexedData {
 
     private List<EPGChannel> channels = Lists.newArrayList();
     private List<List<EPGEvent>> events = Lists.newArrayList();
+    private final EPGTitleDictionary titleDictionary;
 
     public EPGDataImpl(Map<EPGChannel, List<EPGEvent>> data) {
+        this(data, new EPGTitleDictionary());
+    }
+
+    /**
+     * Event titles are interned into given dictionary, events with a title not yet shared are replaced.
+     */
+    public EPGDataImpl(Map<EPGChannel, List<EPGEvent>> data, EPGTitleDictionary titleDictionary) {
+        this.titleDictionary = titleDictionary;
         channels = Lists.newArrayList(data.keySet());
-        events = Lists.newArrayList(data.values());
+        events = Lists.newArrayListWithCapacity(data.size());
+
+        for (List<EPGEvent> channelEvents : data.values()) {
+            List<EPGEvent> internedEvents = Lists.newArrayListWithCapacity(channelEvents.size());
+            for (EPGEvent event : channelEvents) {
+                final String title = titleDictionary.intern(event.getTitle());
+                internedEvents.add(title == event.getTitle() ? event
+                        : new EPGEvent(event.getStart(), event.getEnd(), title));
+            }
+            events.add(internedEvents);
+        }
     }
 
     public EPGChannel getChannel(int position) {
@@ -43,4 +62,62 @@ public class EPGDataImpl implements EPGData {
     public boolean hasData() {
         return !channels.isEmpty();
     }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return events.get(channelPosition).size();
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getStart();
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getEnd();
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getTitle();
+    }
+
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        return titleDictionary;
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        return EPGEventSearch.firstEndingAfter(events.get(channelPosition), from);
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        return EPGEventSearch.lastStartingBefore(events.get(channelPosition), to);
+    }
+
+    /**
+     * @return estimated heap used by this store including channels and titles.
+     */
+    public long getEstimatedHeapBytes() {
+        Map<Object, Boolean> counted = EPGHeapEstimate.newCountedSet();
+        long bytes = EPGHeapEstimate.object(2 * EPGHeapEstimate.REFERENCE);
+        bytes += 2 * (EPGHeapEstimate.object(2 * 4 + EPGHeapEstimate.REFERENCE)
+                + EPGHeapEstimate.array(channels.size(), EPGHeapEstimate.REFERENCE));
+        bytes += EPGHeapEstimate.channels(this, counted);
+
+        for (List<EPGEvent> channelEvents : events) {
+            bytes += EPGHeapEstimate.object(2 * 4 + EPGHeapEstimate.REFERENCE)
+                    + EPGHeapEstimate.array(channelEvents.size(), EPGHeapEstimate.REFERENCE);
+
+            for (EPGEvent event : channelEvents) {
+                bytes += EPGHeapEstimate.object(8 + 8 + EPGHeapEstimate.REFERENCE);
+                bytes += EPGHeapEstimate.string(event.getTitle(), counted);
+            }
+        }
+        bytes += titleDictionary.getEstimatedHeapBytes(counted);
+        return bytes;
+    }
 }
@@ -0,0 +1,118 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Events of one channel in a gap buffer, an array with free slots at the position of the last change.
+ * Replacing a range copies only the events between it and the previous change, so consecutive changes
+ * near each other, like days appended at the end or overruns around now, don't shift the whole channel.
+ * Events dropped from the front only move the start of the list.
+ */
+class EPGEventGapList extends AbstractList<EPGEvent> implements RandomAccess {
+
+    private static final int MIN_GAP = 16;
+
+    private EPGEvent[] items;
+    private int head;       // first event before the gap
+    private int gapStart;
+    private int gapEnd;     // first event after the gap
+
+    EPGEventGapList(List<EPGEvent> events) {
+        items = new EPGEvent[events.size() + MIN_GAP];
+        for (int i = 0; i < events.size(); i++) {
+            items[i] = events.get(i);
+        }
+        gapStart = events.size();
+        gapEnd = items.length;
+    }
+
+    @Override
+    public EPGEvent get(int location) {
+        if (location < 0 || location >= size()) {
+            throw new IndexOutOfBoundsException("Index " + location + ", size " + size());
+        }
+        final int index = head + location;
+        return index < gapStart ? items[index] : items[index + gapEnd - gapStart];
+    }
+
+    @Override
+    public int size() {
+        return gapStart - head + items.length - gapEnd;
+    }
+
+    /**
+     * Replace removeCount events from location with inserted.
+     */
+    void replace(int location, int removeCount, List<EPGEvent> inserted) {
+        moveGap(location);
+
+        // Removed events are right after the gap
+        Arrays.fill(items, gapEnd, gapEnd + removeCount, null);
+        gapEnd += removeCount;
+
+        ensureGap(inserted.size());
+        for (int i = 0; i < inserted.size(); i++) {
+            items[gapStart++] = inserted.get(i);
+        }
+        modCount++;
+    }
+
+    /**
+     * Remove count events from the start of the list.
+     */
+    void removeFirst(int count) {
+        final int before = gapStart - head;
+        if (count <= before) {
+            Arrays.fill(items, head, head + count, null);
+            head += count;
+        } else {
+            // Everything before the gap goes, the gap then starts at the beginning of the array
+            Arrays.fill(items, head, gapStart, null);
+            Arrays.fill(items, gapEnd, gapEnd + count - before, null);
+            gapEnd += count - before;
+            head = 0;
+            gapStart = 0;
+        }
+        modCount++;
+    }
+
+    private void moveGap(int location) {
+        final int target = head + location;
+        if (target < gapStart) {
+            final int length = gapStart - target;
+            System.arraycopy(items, target, items, gapEnd - length, length);
+            Arrays.fill(items, target, Math.min(gapStart, gapEnd - length), null);
+            gapStart = target;
+            gapEnd -= length;
+        } else if (target > gapStart) {
+            final int length = target - gapStart;
+            System.arraycopy(items, gapEnd, items, gapStart, length);
+            Arrays.fill(items, Math.max(gapEnd, target), gapEnd + length, null);
+            gapStart = target;
+            gapEnd += length;
+        }
+    }
+
+    private void ensureGap(int count) {
+        if (gapEnd - gapStart >= count) {
+            return;
+        }
+
+        final int size = size();
+        final int before = gapStart - head;
+        final int after = items.length - gapEnd;
+        final EPGEvent[] grown = new EPGEvent[Math.max(size + count + MIN_GAP, size * 2)];
+        System.arraycopy(items, head, grown, 0, before);
+        System.arraycopy(items, gapEnd, grown, grown.length - after, after);
+
+        items = grown;
+        head = 0;
+        gapStart = before;
+        gapEnd = grown.length - after;
+    }
+}
@@ -0,0 +1,117 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.util.List;
+import java.util.RandomAccess;
+
+import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Binary search helpers for finding events by time. Works on any EPGData, implementations of
+ * EPGIndexedData are asked directly and others are searched through their event list.
+ * Events are expected to be sorted by start time and not overlap. Lists without random access
+ * are scanned linearly.
+ */
+public class EPGEventSearch {
+
+    /**
+     * Position of first event on channel that ends after from. Returns event count if there is none.
+     */
+    public static int getFirstEventPosition(EPGData epgData, int channelPosition, long from) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getFirstEventPosition(channelPosition, from);
+        }
+        return firstEndingAfter(epgData.getEvents(channelPosition), from);
+    }
+
+    /**
+     * Position of last event on channel that starts before to. Returns -1 if there is none.
+     */
+    public static int getLastEventPosition(EPGData epgData, int channelPosition, long to) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getLastEventPosition(channelPosition, to);
+        }
+        return lastStartingBefore(epgData.getEvents(channelPosition), to);
+    }
+
+    /**
+     * Position of event on channel at given time, start and end inclusive, or -1 if there is none.
+     * When an event ends at the same time as the next starts the earlier one is returned, same as
+     * scanning the events from the first one.
+     */
+    public static int getEventPosition(EPGData epgData, int channelPosition, long time) {
+        // First event ending at or after time contains it if it also starts at or before it
+        final int position = getFirstEventPosition(epgData, channelPosition, time - 1);
+
+        if (epgData instanceof EPGIndexedData) {
+            EPGIndexedData indexedData = (EPGIndexedData) epgData;
+            return position < indexedData.getEventCount(channelPosition)
+                    && indexedData.getEventStart(channelPosition, position) <= time ? position : -1;
+        }
+
+        List<EPGEvent> events = epgData.getEvents(channelPosition);
+        return events != null && position < events.size()
+                && events.get(position).getStart() <= time ? position : -1;
+    }
+
+    public static int firstEndingAfter(List<EPGEvent> events, long from) {
+        if (events == null) {
+            return 0;
+        }
+
+        if (!(events instanceof RandomAccess)) {
+            int position = 0;
+            for (EPGEvent event : events) {
+                if (event.getEnd() > from) {
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+
+        int low = 0;
+        int high = events.size();
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (events.get(mid).getEnd() > from) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public static int lastStartingBefore(List<EPGEvent> events, long to) {
+        if (events == null) {
+            return -1;
+        }
+
+        if (!(events instanceof RandomAccess)) {
+            int position = -1;
+            for (EPGEvent event : events) {
+                if (event.getStart() >= to) {
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+
+        int low = 0;
+        int high = events.size();
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (events.get(mid).getStart() < to) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+}
@@ -0,0 +1,173 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.base.Predicate;
+
+import java.util.Arrays;
+import java.util.List;
+
+import se.kmdev.tvepg.epg.EPGDataObserver;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.EPGObservableData;
+import se.kmdev.tvepg.epg.EPGWindowedData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * View of a subset of channels of another EPGIndexedData, e.g. favorites or a channel group. View positions
+ * map to positions in the store through an index array and everything else is read from the store, so
+ * creating or switching views costs O(channels in view) and no events are copied. Several views can share
+ * one store, the one passed to EPG forwards changes of observable stores and time window changes.
+ * Paged data is loaded by store position, so views over EPGPagedData are not supported.
+ */
+public class EPGFilteredData implements EPGIndexedData, EPGObservableData, EPGWindowedData {
+
+    private final EPGIndexedData store;
+    private final int[] storePositions;
+    private final int[] viewPositions;
+
+    /**
+     * @param storePositions position in store of each channel in view, in view order.
+     */
+    public EPGFilteredData(EPGIndexedData store, int[] storePositions) {
+        this.store = store;
+        this.storePositions = Arrays.copyOf(storePositions, storePositions.length);
+
+        viewPositions = new int[store.getChannelCount()];
+        Arrays.fill(viewPositions, -1);
+        for (int i = 0; i < storePositions.length; i++) {
+            viewPositions[storePositions[i]] = i;
+        }
+    }
+
+    /**
+     * @return view of the channels of store matching predicate, in store order.
+     */
+    public static EPGFilteredData filter(EPGIndexedData store, Predicate<EPGChannel> predicate) {
+        int[] positions = new int[store.getChannelCount()];
+        int count = 0;
+        for (int i = 0; i < store.getChannelCount(); i++) {
+            if (predicate.apply(store.getChannel(i))) {
+                positions[count++] = i;
+            }
+        }
+        return new EPGFilteredData(store, Arrays.copyOf(positions, count));
+    }
+
+    public EPGIndexedData getStore() {
+        return store;
+    }
+
+    /**
+     * @return position in store of channel at given view position.
+     */
+    public int getStorePosition(int channelPosition) {
+        return storePositions[channelPosition];
+    }
+
+    /**
+     * @return view position of the channel at given position in store, e.g. of an EPGSearchIndex hit on
+     * the store, or -1 if the channel is not in view.
+     */
+    public int getViewPosition(int storePosition) {
+        return storePosition >= 0 && storePosition < viewPositions.length ? viewPositions[storePosition] : -1;
+    }
+
+    /**
+     * Forwards changes of the store for channels in view, translated to view positions.
+     */
+    @Override
+    public void setDataObserver(final EPGDataObserver observer) {
+        if (!(store instanceof EPGObservableData)) {
+            return;
+        }
+
+        if (observer == null) {
+            ((EPGObservableData) store).setDataObserver(null);
+            return;
+        }
+
+        ((EPGObservableData) store).setDataObserver(new EPGDataObserver() {
+            @Override
+            public void onEventsChanged(int firstChannelPosition, int lastChannelPosition, long from, long to) {
+                int first = Integer.MAX_VALUE;
+                int last = -1;
+                for (int i = 0; i < storePositions.length; i++) {
+                    if (storePositions[i] >= firstChannelPosition && storePositions[i] <= lastChannelPosition) {
+                        first = Math.min(first, i);
+                        last = i;
+                    }
+                }
+                if (last != -1) {
+                    observer.onEventsChanged(first, last, from, to);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onTimeWindowChanged(long from, long to) {
+        if (store instanceof EPGWindowedData) {
+            ((EPGWindowedData) store).onTimeWindowChanged(from, to);
+        }
+    }
+
+    @Override
+    public EPGChannel getChannel(int position) {
+        return store.getChannel(storePositions[position]);
+    }
+
+    @Override
+    public List<EPGEvent> getEvents(int channelPosition) {
+        return store.getEvents(storePositions[channelPosition]);
+    }
+
+    @Override
+    public EPGEvent getEvent(int channelPosition, int programPosition) {
+        return store.getEvent(storePositions[channelPosition], programPosition);
+    }
+
+    @Override
+    public int getChannelCount() {
+        return storePositions.length;
+    }
+
+    @Override
+    public boolean hasData() {
+        return storePositions.length > 0;
+    }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return store.getEventCount(storePositions[channelPosition]);
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return store.getEventStart(storePositions[channelPosition], programPosition);
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return store.getEventEnd(storePositions[channelPosition], programPosition);
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return store.getEventTitle(storePositions[channelPosition], programPosition);
+    }
+
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        return store.getTitleDictionary();
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        return store.getFirstEventPosition(storePositions[channelPosition], from);
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        return store.getLastEventPosition(storePositions[channelPosition], to);
+    }
+}
@@ -0,0 +1,247 @@
+package se.kmdev.tvepg.epg.misc;
+
+/**
+ * Frame timing collected by EPG.onDraw() when enabled through EPG.setFrameStatsEnabled(). Records time
+ * spent in each drawing phase, events drawn per frame, hit rates of the caches used while drawing and
+ * frames dropped while scrolling. Values go into fixed power of two histograms so recording allocates
+ * nothing and costs a few nanoTime() calls per frame.
+ * Poll the getters or log dump(). Must be used on main thread.
+ */
+public class EPGFrameStats {
+
+    public static final int PHASE_CHANNELS = 0;
+    public static final int PHASE_EVENTS = 1;
+    public static final int PHASE_TIMEBAR = 2;
+    public static final int PHASE_TIME_LINE = 3;
+    public static final int PHASE_RESET_BUTTON = 4;
+    public static final int PHASE_FRAME = 5;
+    public static final int PHASE_COUNT = 6;
+
+    public static final int CACHE_TEXT_LAYOUT = 0;
+    public static final int CACHE_TILE = 1;
+    public static final int CACHE_IMAGE = 2;
+    public static final int CACHE_COUNT = 3;
+
+    private static final String[] PHASE_NAMES = {"channels", "events", "timebar", "timeLine", "resetButton", "frame"};
+    private static final String[] CACHE_NAMES = {"textLayout", "tile", "image"};
+
+    private static final long FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    private final Histogram[] phases = new Histogram[PHASE_COUNT];
+    private final long[] lastPhaseNanos = new long[PHASE_COUNT];
+    private final Histogram eventsPerFrame = new Histogram();
+    private final long[] cacheHits = new long[CACHE_COUNT];
+    private final long[] cacheMisses = new long[CACHE_COUNT];
+    private final long[] cacheBaseHits = new long[CACHE_COUNT];
+    private final long[] cacheBaseMisses = new long[CACHE_COUNT];
+
+    private long frameStart;
+    private long phaseStart;
+    private long previousFrameStart;
+    private boolean previousFrameAnimating;
+    private int events;
+    private long frames;
+    private long droppedFrames;
+
+    public EPGFrameStats() {
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Called at start of onDraw(). Frames are counted as dropped when the previous frame asked for
+     * another one, e.g. during a fling, and this one came later than the display refresh interval.
+     */
+    public void beginFrame() {
+        frameStart = System.nanoTime();
+        phaseStart = frameStart;
+        events = 0;
+
+        if (previousFrameAnimating) {
+            final long missed = (frameStart - previousFrameStart + FRAME_INTERVAL_NANOS / 2) / FRAME_INTERVAL_NANOS - 1;
+            if (missed > 0) {
+                droppedFrames += missed;
+            }
+        }
+        previousFrameStart = frameStart;
+    }
+
+    /**
+     * @param animating true if another frame follows right away, e.g. while scroller is running.
+     */
+    public void endFrame(boolean animating) {
+        record(PHASE_FRAME, frameStart);
+        eventsPerFrame.add(events);
+        previousFrameAnimating = animating;
+        frames++;
+    }
+
+    /**
+     * End phase started at the previous mark() or beginFrame(), the next phase starts now.
+     */
+    public void mark(int phase) {
+        record(phase, phaseStart);
+        phaseStart = System.nanoTime();
+    }
+
+    public void countEvent() {
+        events++;
+    }
+
+    /**
+     * Set current totals of a cache, hit rates are calculated from totals since reset().
+     */
+    public void setCacheCounts(int cache, long hits, long misses) {
+        cacheHits[cache] = hits;
+        cacheMisses[cache] = misses;
+    }
+
+    public void reset() {
+        for (Histogram phase : phases) {
+            phase.clear();
+        }
+        eventsPerFrame.clear();
+        System.arraycopy(cacheHits, 0, cacheBaseHits, 0, CACHE_COUNT);
+        System.arraycopy(cacheMisses, 0, cacheBaseMisses, 0, CACHE_COUNT);
+        previousFrameAnimating = false;
+        frames = 0;
+        droppedFrames = 0;
+    }
+
+    public Histogram getPhase(int phase) {
+        return phases[phase];
+    }
+
+    /**
+     * @return duration of phase in last frame.
+     */
+    public long getLastPhaseNanos(int phase) {
+        return lastPhaseNanos[phase];
+    }
+
+    public Histogram getEventsPerFrame() {
+        return eventsPerFrame;
+    }
+
+    /**
+     * @return hits per lookup since reset(), or -1 if there were no lookups.
+     */
+    public float getCacheHitRate(int cache) {
+        final long hits = cacheHits[cache] - cacheBaseHits[cache];
+        final long lookups = hits + cacheMisses[cache] - cacheBaseMisses[cache];
+        return lookups == 0 ? -1 : (float) hits / lookups;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    public static String getCacheName(int cache) {
+        return CACHE_NAMES[cache];
+    }
+
+    /**
+     * @return multi line summary of all stats, e.g. for logging.
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("frames=").append(frames).append(", dropped=").append(droppedFrames).append('\n');
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            builder.append(PHASE_NAMES[i]).append(": ").append(phases[i].toMillisString()).append('\n');
+        }
+        builder.append("eventsPerFrame: mean=").append(eventsPerFrame.getMean())
+                .append(", p95=").append(eventsPerFrame.getPercentile(0.95f))
+                .append(", max=").append(eventsPerFrame.getMax()).append('\n');
+        for (int i = 0; i < CACHE_COUNT; i++) {
+            builder.append(CACHE_NAMES[i]).append(" hitRate=").append(getCacheHitRate(i)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "EPGFrameStats{frames=" + frames + ", dropped=" + droppedFrames
+                + ", frame=" + phases[PHASE_FRAME].toMillisString() + "}";
+    }
+
+    private void record(int phase, long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        lastPhaseNanos[phase] = nanos;
+        phases[phase].add(nanos);
+    }
+
+    /**
+     * Histogram with one bucket per power of two, bucket n holds values in [2^(n-1), 2^n).
+     * Percentiles are approximated by the upper bound of their bucket.
+     */
+    public static class Histogram {
+
+        private static final int BUCKETS = 64;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        void add(long value) {
+            buckets[BUCKETS - Long.numberOfLeadingZeros(Math.max(value, 0))]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        void clear() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.95 for 95th percentile.
+         */
+        public long getPercentile(float fraction) {
+            final long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+                }
+            }
+            return max;
+        }
+
+        String toMillisString() {
+            return "mean=" + toMillis(getMean()) + "ms, p50=" + toMillis(getPercentile(0.5f))
+                    + "ms, p95=" + toMillis(getPercentile(0.95f)) + "ms, max=" + toMillis(max) + "ms";
+        }
+
+        private static String toMillis(long nanos) {
+            return String.valueOf(nanos / 10000 / 100f);
+        }
+    }
+}
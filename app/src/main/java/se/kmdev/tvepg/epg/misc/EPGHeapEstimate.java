@@ -0,0 +1,60 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+
+/**
+ * Rough heap size estimates used to compare EPGData implementations. Assumes a 32 bit VM,
+ * which is what most TV boxes run, with 8 byte object headers and 8 byte alignment.
+ * Numbers are estimates and not measurements, but they are computed the same way for all stores.
+ */
+public class EPGHeapEstimate {
+
+    public static final int OBJECT_HEADER = 8;
+    public static final int ARRAY_HEADER = 12;
+    public static final int REFERENCE = 4;
+
+    public static long object(long fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    public static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * String object with its char array. Strings already present in counted are free, pass null to count all.
+     */
+    public static long string(String string, Map<Object, Boolean> counted) {
+        if (string == null || (counted != null && counted.put(string, Boolean.TRUE) != null)) {
+            return 0;
+        }
+        return object(4 * 4) + array(string.length(), 2);
+    }
+
+    /**
+     * Channel objects including their strings.
+     */
+    public static long channels(EPGData epgData, Map<Object, Boolean> counted) {
+        long bytes = 0;
+        for (int i = 0; i < epgData.getChannelCount(); i++) {
+            EPGChannel channel = epgData.getChannel(i);
+            bytes += object(3 * REFERENCE);
+            bytes += string(channel.getChannelID(), counted);
+            bytes += string(channel.getName(), counted);
+            bytes += string(channel.getImageURL(), counted);
+        }
+        return bytes;
+    }
+
+    public static Map<Object, Boolean> newCountedSet() {
+        return new IdentityHashMap<Object, Boolean>();
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
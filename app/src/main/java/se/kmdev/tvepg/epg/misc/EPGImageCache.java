@@ -0,0 +1,375 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.common.collect.Maps;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Two tier cache for channel logos. Memory tier is an LRU bounded by total bitmap bytes, disk tier keeps
+ * resized logos as files so they don't have to be downloaded again on next launch. Logos are fetched
+ * through Picasso only when missing from both tiers.
+ * Mutable bitmaps evicted from memory are kept in a small pool and reused when decoding from disk,
+ * which avoids allocating a new bitmap for each logo scrolled into view.
+ * A logo that failed to load is not requested again until a retry delay has passed, doubling with each
+ * failure, so broken urls are not fetched on every frame.
+ * Must be used from main thread, listeners are called on main thread.
+ */
+public class EPGImageCache {
+
+    private static final String TAG = "EPGImageCache";
+    private static final String DISK_DIRECTORY = "epg-logos";
+    private static final int REUSABLE_POOL_SIZE = 8;
+    private static final long RETRY_DELAY_MILLIS = 30 * 1000;             // 30 seconds, doubled per failure
+    private static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000;    // 1 hour
+
+    public interface Listener {
+
+        void onImageLoaded(String url);
+
+        void onImageFailed(String url);
+    }
+
+    private final Context context;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ArrayDeque<Bitmap> reusableBitmaps = new ArrayDeque<Bitmap>();
+    private final Map<String, Target> pendingTargets = Maps.newHashMap();
+    private final Map<String, Failure> failures = Maps.newHashMap();
+    private final File diskDirectory;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long diskHits;
+    private long failureCount;
+
+    /**
+     * Cache using 1/16 of the memory available to the app.
+     */
+    public EPGImageCache(Context context) {
+        this(context, defaultMaxBytes(context));
+    }
+
+    public EPGImageCache(Context context, int maxBytes) {
+        this.context = context.getApplicationContext();
+        this.diskDirectory = new File(context.getCacheDir(), DISK_DIRECTORY);
+
+        memoryCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    evictions++;
+                    addReusable(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return logo if in memory, otherwise null and load() should be called.
+     */
+    public Bitmap get(String url) {
+        Bitmap bitmap = memoryCache.get(url);
+        if (bitmap != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Load logo from disk or network into memory. Does nothing if already in memory or loading.
+     * @param listener called on main thread when logo is available through get().
+     */
+    public void load(String url, int width, int height, Listener listener) {
+        load(url, width, height, Picasso.Priority.NORMAL, listener);
+    }
+
+    /**
+     * @param priority of the network request if logo is not on disk.
+     * @return true if a load was started, false if already in memory, loading or failed recently.
+     */
+    public boolean load(final String url, final int width, final int height, final Picasso.Priority priority,
+                        final Listener listener) {
+        if (memoryCache.get(url) != null || pendingTargets.containsKey(url) || isFailed(url)) {
+            return false;
+        }
+
+        final File file = getDiskFile(url, width, height);
+        // Marks url as loading until the network target replaces it
+        pendingTargets.put(url, new LogoTarget(url, file, listener));
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = file.exists() ? decodeFromDisk(file) : null;
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (bitmap != null) {
+                            diskHits++;
+                            onLoaded(url, bitmap, listener);
+                        } else if (pendingTargets.containsKey(url)) {
+                            EPGUtil.loadImageInto(context, url, width, height, priority, pendingTargets.get(url));
+                        }
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Cancel a load that has not completed yet, e.g. when the channel is no longer about to be shown.
+     */
+    public void cancel(String url) {
+        Target target = pendingTargets.remove(url);
+        if (target != null) {
+            EPGUtil.cancelRequest(context, target);
+        }
+    }
+
+    public boolean isLoading(String url) {
+        return pendingTargets.containsKey(url);
+    }
+
+    /**
+     * @return true if the last load of url failed and it is not to be retried yet.
+     */
+    public boolean isFailed(String url) {
+        Failure failure = failures.get(url);
+        return failure != null && SystemClock.elapsedRealtime() < failure.retryAt;
+    }
+
+    /**
+     * Empty memory tier. Disk tier is kept.
+     */
+    public void clear() {
+        memoryCache.evictAll();
+        synchronized (reusableBitmaps) {
+            reusableBitmaps.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public long getDiskHitCount() {
+        return diskHits;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public int getSizeBytes() {
+        return memoryCache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EPGImageCache{bytes=" + memoryCache.size() + "/" + memoryCache.maxSize() + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + ", diskHits=" + diskHits
+                + ", failures=" + failureCount + "}";
+    }
+
+    private void onLoaded(String url, Bitmap bitmap, Listener listener) {
+        pendingTargets.remove(url);
+        failures.remove(url);
+        memoryCache.put(url, bitmap);
+        listener.onImageLoaded(url);
+    }
+
+    private Bitmap decodeFromDisk(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options.outWidth * options.outHeight * 4);
+
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // Reusable bitmap could not be used, decode into a new one
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    private void writeToDisk(final File file, final Bitmap bitmap) {
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!diskDirectory.exists() && !diskDirectory.mkdirs()) {
+                    return;
+                }
+
+                File tempFile = new File(file.getPath() + ".tmp");
+                try {
+                    OutputStream out = new FileOutputStream(tempFile);
+                    try {
+                        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    } finally {
+                        out.close();
+                    }
+                    if (!tempFile.renameTo(file)) {
+                        tempFile.delete();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write logo to disk", e);
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    private void addReusable(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+
+        synchronized (reusableBitmaps) {
+            if (reusableBitmaps.size() == REUSABLE_POOL_SIZE) {
+                reusableBitmaps.removeFirst();
+            }
+            reusableBitmaps.addLast(bitmap);
+        }
+    }
+
+    private Bitmap takeReusable(int byteCount) {
+        synchronized (reusableBitmaps) {
+            Iterator<Bitmap> iterator = reusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private File getDiskFile(String url, int width, int height) {
+        return new File(diskDirectory, hash(url) + "_" + width + "x" + height + ".png");
+    }
+
+    private static String hash(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static int defaultMaxBytes(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / 16;
+    }
+
+    /**
+     * Picasso only keeps weak references to targets so they are held here until loaded or failed.
+     */
+    private class LogoTarget implements Target {
+
+        private final String url;
+        private final File file;
+        private final Listener listener;
+
+        LogoTarget(String url, File file, Listener listener) {
+            this.url = url;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            if (pendingTargets.get(url) == this) {
+                onLoaded(url, bitmap, listener);
+                writeToDisk(file, bitmap);
+            }
+        }
+
+        @Override
+        public void onBitmapFailed(Drawable errorDrawable) {
+            if (pendingTargets.get(url) == this) {
+                pendingTargets.remove(url);
+                failureCount++;
+
+                Failure failure = failures.get(url);
+                if (failure == null) {
+                    failure = new Failure();
+                    failures.put(url, failure);
+                }
+                failure.delay = failure.delay == 0
+                        ? RETRY_DELAY_MILLIS : Math.min(failure.delay * 2, MAX_RETRY_DELAY_MILLIS);
+                failure.retryAt = SystemClock.elapsedRealtime() + failure.delay;
+                listener.onImageFailed(url);
+            }
+        }
+
+        @Override
+        public void onPrepareLoad(Drawable placeHolderDrawable) {
+
+        }
+    }
+
+    /**
+     * Retry delay of a url that failed to load.
+     */
+    private static class Failure {
+
+        long delay;
+        long retryAt;
+    }
+}
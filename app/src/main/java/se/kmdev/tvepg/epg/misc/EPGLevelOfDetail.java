@@ -0,0 +1,213 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.util.Arrays;
+
+import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Aggregated events for drawing at wide zoom. At each level, runs of consecutive events shorter than
+ * the level's duration are collapsed into one block, longer events are kept as they are. Level n
+ * collapses events shorter than BASE_MILLIS * 2^n, so EPG picks the level matching the smallest
+ * width worth drawing at current zoom and draws about as many items for a day as for a couple of hours.
+ * Levels are built per channel on first use and dropped with invalidateChannels() when data changes.
+ */
+public class EPGLevelOfDetail {
+
+    public static final long BASE_MILLIS = 5 * 60 * 1000L;     // 5 minutes
+    public static final int LEVEL_COUNT = 9;                    // up to 21 hours
+
+    private final EPGData epgData;
+    private final Level[][] channels;
+
+    public EPGLevelOfDetail(EPGData epgData) {
+        this.epgData = epgData;
+        this.channels = new Level[epgData.getChannelCount()][];
+    }
+
+    /**
+     * @param minEventMillis duration of the narrowest event worth drawing on its own.
+     * @return highest level collapsing only events shorter than minEventMillis, or -1 if events
+     * should be drawn as they are.
+     */
+    public static int getLevel(double minEventMillis) {
+        int level = -1;
+        while (level + 1 < LEVEL_COUNT && (BASE_MILLIS << (level + 1)) <= minEventMillis) {
+            level++;
+        }
+        return level;
+    }
+
+    public int getChannelCount() {
+        return channels.length;
+    }
+
+    /**
+     * Drop levels of given channels, both inclusive, they are built again on next use.
+     */
+    public void invalidateChannels(int firstChannelPosition, int lastChannelPosition) {
+        for (int i = Math.max(firstChannelPosition, 0); i <= lastChannelPosition && i < channels.length; i++) {
+            channels[i] = null;
+        }
+    }
+
+    public int getItemCount(int channelPosition, int level) {
+        return getLevel(channelPosition, level).count;
+    }
+
+    public long getItemStart(int channelPosition, int level, int item) {
+        return getLevel(channelPosition, level).starts[item];
+    }
+
+    public long getItemEnd(int channelPosition, int level, int item) {
+        return getLevel(channelPosition, level).ends[item];
+    }
+
+    /**
+     * @return position in EPGData of the first event of an item.
+     */
+    public int getItemEventPosition(int channelPosition, int level, int item) {
+        return getLevel(channelPosition, level).eventPositions[item];
+    }
+
+    /**
+     * @return number of events collapsed into an item, 1 if it is a single event.
+     */
+    public int getItemEventCount(int channelPosition, int level, int item) {
+        return getLevel(channelPosition, level).eventCounts[item];
+    }
+
+    /**
+     * @return first item ending after from, or item count if there is none.
+     */
+    public int getFirstItemPosition(int channelPosition, int level, long from) {
+        Level items = getLevel(channelPosition, level);
+        int low = 0;
+        int high = items.count;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (items.ends[mid] > from) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return last item starting before to, or -1 if there is none.
+     */
+    public int getLastItemPosition(int channelPosition, int level, long to) {
+        Level items = getLevel(channelPosition, level);
+        int low = 0;
+        int high = items.count;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (items.starts[mid] < to) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private Level getLevel(int channelPosition, int level) {
+        Level[] levels = channels[channelPosition];
+        if (levels == null) {
+            levels = build(channelPosition);
+            channels[channelPosition] = levels;
+        }
+        return levels[level];
+    }
+
+    private Level[] build(int channelPosition) {
+        final int eventCount = getEventCount(channelPosition);
+        long[] starts = new long[eventCount];
+        long[] ends = new long[eventCount];
+
+        if (epgData instanceof EPGIndexedData) {
+            EPGIndexedData indexedData = (EPGIndexedData) epgData;
+            for (int i = 0; i < eventCount; i++) {
+                starts[i] = indexedData.getEventStart(channelPosition, i);
+                ends[i] = indexedData.getEventEnd(channelPosition, i);
+            }
+        } else {
+            for (int i = 0; i < eventCount; i++) {
+                EPGEvent event = epgData.getEvent(channelPosition, i);
+                starts[i] = event.getStart();
+                ends[i] = event.getEnd();
+            }
+        }
+
+        Level[] levels = new Level[LEVEL_COUNT];
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            levels[level] = collapse(starts, ends, BASE_MILLIS << level);
+        }
+        return levels;
+    }
+
+    /**
+     * Collapse runs of events shorter than minMillis, separated by gaps shorter than minMillis.
+     */
+    private static Level collapse(long[] starts, long[] ends, long minMillis) {
+        Level level = new Level(starts.length);
+
+        int i = 0;
+        while (i < starts.length) {
+            int last = i;
+            if (ends[i] - starts[i] < minMillis) {
+                while (last + 1 < starts.length && ends[last + 1] - starts[last + 1] < minMillis
+                        && starts[last + 1] - ends[last] < minMillis) {
+                    last++;
+                }
+            }
+            level.add(starts[i], ends[last], i, last - i + 1);
+            i = last + 1;
+        }
+        level.trim();
+        return level;
+    }
+
+    private int getEventCount(int channelPosition) {
+        if (epgData instanceof EPGIndexedData) {
+            return ((EPGIndexedData) epgData).getEventCount(channelPosition);
+        }
+        return epgData.getEvents(channelPosition) != null ? epgData.getEvents(channelPosition).size() : 0;
+    }
+
+    private static class Level {
+
+        long[] starts;
+        long[] ends;
+        int[] eventPositions;
+        int[] eventCounts;
+        int count;
+
+        Level(int capacity) {
+            starts = new long[capacity];
+            ends = new long[capacity];
+            eventPositions = new int[capacity];
+            eventCounts = new int[capacity];
+        }
+
+        void add(long start, long end, int eventPosition, int eventCount) {
+            starts[count] = start;
+            ends[count] = end;
+            eventPositions[count] = eventPosition;
+            eventCounts[count] = eventCount;
+            count++;
+        }
+
+        void trim() {
+            starts = Arrays.copyOf(starts, count);
+            ends = Arrays.copyOf(ends, count);
+            eventPositions = Arrays.copyOf(eventPositions, count);
+            eventCounts = Arrays.copyOf(eventCounts, count);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Sets;
+import com.squareup.picasso.Picasso;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queues channel logo loads ahead of a fling so logos are in EPGImageCache when rows come into view.
+ * Logos of the rows the fling lands on are loaded first with high priority, rows passed on the way
+ * follow with low priority. Only a few loads are started at a time so a new fling can still replace
+ * the queue, loads started for an earlier fling are cancelled unless still needed.
+ * Must be used on main thread.
+ */
+public class EPGLogoPrefetcher implements EPGImageCache.Listener {
+
+    private static final int MAX_LOADS_IN_FLIGHT = 4;
+
+    private final EPGImageCache imageCache;
+    private final EPGImageCache.Listener listener;
+    private final ArrayDeque<String> landingQueue = new ArrayDeque<String>();
+    private final ArrayDeque<String> passingQueue = new ArrayDeque<String>();
+    private final Set<String> inFlight = Sets.newHashSet();
+    private int width;
+    private int height;
+
+    /**
+     * @param listener notified when a prefetched logo is loaded, e.g. to redraw if already visible.
+     */
+    public EPGLogoPrefetcher(EPGImageCache imageCache, EPGImageCache.Listener listener) {
+        this.imageCache = imageCache;
+        this.listener = listener;
+    }
+
+    /**
+     * Replace queued loads with logos for a new fling.
+     * @param landingURLs logos of rows visible when fling ends.
+     * @param passingURLs logos of rows passed before landing, nearest to landing first.
+     */
+    public void prefetch(List<String> landingURLs, List<String> passingURLs, int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        Set<String> wanted = Sets.newHashSet();
+        addAll(wanted, landingURLs);
+        addAll(wanted, passingURLs);
+        cancelExcept(wanted);
+
+        addAll(landingQueue, landingURLs);
+        addAll(passingQueue, passingURLs);
+        startLoads();
+    }
+
+    /**
+     * Drop queued loads and cancel started ones not in keepURLs, e.g. logos of rows visible when a fling
+     * is stopped.
+     */
+    public void cancelExcept(Collection<String> keepURLs) {
+        landingQueue.clear();
+        passingQueue.clear();
+
+        for (String url : Sets.newHashSet(inFlight)) {
+            if (!keepURLs.contains(url)) {
+                imageCache.cancel(url);
+                inFlight.remove(url);
+            }
+        }
+    }
+
+    public boolean isIdle() {
+        return inFlight.isEmpty() && landingQueue.isEmpty() && passingQueue.isEmpty();
+    }
+
+    @Override
+    public void onImageLoaded(String url) {
+        inFlight.remove(url);
+        listener.onImageLoaded(url);
+        startLoads();
+    }
+
+    @Override
+    public void onImageFailed(String url) {
+        inFlight.remove(url);
+        listener.onImageFailed(url);
+        startLoads();
+    }
+
+    private void startLoads() {
+        while (inFlight.size() < MAX_LOADS_IN_FLIGHT && !(landingQueue.isEmpty() && passingQueue.isEmpty())) {
+            final boolean landing = !landingQueue.isEmpty();
+            final String url = landing ? landingQueue.poll() : passingQueue.poll();
+
+            if (!inFlight.contains(url) && imageCache.load(url, width, height,
+                    landing ? Picasso.Priority.HIGH : Picasso.Priority.LOW, this)) {
+                inFlight.add(url);
+            }
+        }
+    }
+
+    private static void addAll(Collection<String> target, List<String> urls) {
+        for (String url : urls) {
+            if (url != null) {
+                target.add(url);
+            }
+        }
+    }
+}
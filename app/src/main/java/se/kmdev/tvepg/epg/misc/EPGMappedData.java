@@ -0,0 +1,298 @@
+package se.kmdev.tvepg.epg.misc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * EPGData reading directly from a memory mapped EPGBinaryCache file. Opening only validates the header,
+ * channel table, string pool offsets and title ids, times are read from the mapped buffer on access and
+ * strings are decoded the first time they are used. Pages of the file are loaded by the OS when touched, so only the visible part of the guide is read.
+ * Use EPGBinaryCache.open() to create.
+ */
+public class EPGMappedData implements EPGIndexedData {
+
+    private final ByteBuffer buffer;
+    private final int channelCount;
+    private final int eventCount;
+    private final int titleCount;
+    private final long createdMillis;
+    private final int channelsOffset;
+    private final int startsOffset;
+    private final int endsOffset;
+    private final int titleIdsOffset;
+    private final int titlePoolOffset;
+    private final int stringPoolOffset;
+
+    private final String[] titles;
+    private final EPGChannel[] channels;
+    private EPGTitleDictionary titleDictionary;
+
+    EPGMappedData(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if (buffer.capacity() < EPGBinaryCache.HEADER_SIZE || buffer.getInt(0) != EPGBinaryCache.MAGIC) {
+            throw new IOException("Not an EPG cache file");
+        }
+        if (buffer.getInt(4) != EPGBinaryCache.VERSION) {
+            throw new IOException("Unsupported EPG cache version " + buffer.getInt(4));
+        }
+
+        channelCount = buffer.getInt(8);
+        eventCount = buffer.getInt(12);
+        titleCount = buffer.getInt(16);
+        final int stringCount = buffer.getInt(20);
+        createdMillis = buffer.getLong(24);
+
+        if (channelCount < 0 || eventCount < 0 || titleCount < 0 || stringCount < 0) {
+            throw new IOException("Corrupt EPG cache file");
+        }
+
+        // Sections must fit the file before int offsets are computed from the counts
+        if (EPGBinaryCache.HEADER_SIZE + (long) channelCount * EPGBinaryCache.CHANNEL_SIZE
+                + (long) eventCount * 20 + 8 > buffer.capacity()) {
+            throw new IOException("Truncated EPG cache file");
+        }
+
+        channelsOffset = EPGBinaryCache.HEADER_SIZE;
+        final int channelsEnd = channelsOffset + channelCount * EPGBinaryCache.CHANNEL_SIZE;
+        startsOffset = channelsEnd + EPGBinaryCache.padding(channelsEnd);
+        endsOffset = startsOffset + eventCount * 8;
+        titleIdsOffset = endsOffset + eventCount * 8;
+        titlePoolOffset = titleIdsOffset + eventCount * 4;
+
+        try {
+            validatePool(titlePoolOffset, titleCount);
+            stringPoolOffset = poolEnd(titlePoolOffset, titleCount);
+            validatePool(stringPoolOffset, stringCount);
+            if (poolEnd(stringPoolOffset, stringCount) != buffer.capacity()) {
+                throw new IOException("Corrupt EPG cache file");
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated EPG cache file");
+        }
+
+        validateChannels(stringCount);
+        validateTitleIds();
+
+        titles = new String[titleCount];
+        channels = new EPGChannel[channelCount];
+    }
+
+    /**
+     * Check the channel table so a corrupt file fails here instead of when drawing.
+     */
+    private void validateChannels(int stringCount) throws IOException {
+        for (int i = 0; i < channelCount; i++) {
+            final int offset = channelsOffset + i * EPGBinaryCache.CHANNEL_SIZE;
+            final int first = buffer.getInt(offset);
+            final int count = buffer.getInt(offset + 4);
+            if (first < 0 || count < 0 || (long) first + count > eventCount) {
+                throw new IOException("Corrupt EPG cache file, events of channel " + i + " out of bounds");
+            }
+            for (int string = 8; string <= 16; string += 4) {
+                final int id = buffer.getInt(offset + string);
+                if (id < -1 || id >= stringCount) {
+                    throw new IOException("Corrupt EPG cache file, strings of channel " + i + " out of bounds");
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that the offsets of a pool start at 0 and never decrease, poolEnd() then checks the last one.
+     */
+    private void validatePool(int poolOffset, int count) throws IOException {
+        int previous = 0;
+        for (int i = 0; i <= count; i++) {
+            final int offset = buffer.getInt(poolOffset + i * 4);
+            if (i == 0 ? offset != 0 : offset < previous) {
+                throw new IOException("Corrupt EPG cache file, string pool offsets out of order");
+            }
+            previous = offset;
+        }
+    }
+
+    /**
+     * Check that every event refers to a title in the pool. Only touches the title id section of the file.
+     */
+    private void validateTitleIds() throws IOException {
+        for (int i = 0; i < eventCount; i++) {
+            final int id = buffer.getInt(titleIdsOffset + i * 4);
+            if (id < 0 || id >= titleCount) {
+                throw new IOException("Corrupt EPG cache file, title of event " + i + " out of bounds");
+            }
+        }
+    }
+
+    /**
+     * @return time when the cache file was written.
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    @Override
+    public EPGChannel getChannel(int position) {
+        EPGChannel channel = channels[position];
+        if (channel == null) {
+            final int offset = channelsOffset + position * EPGBinaryCache.CHANNEL_SIZE;
+            channel = new EPGChannel(getString(buffer.getInt(offset + 16)),
+                    getString(buffer.getInt(offset + 12)),
+                    getString(buffer.getInt(offset + 8)));
+            channels[position] = channel;
+        }
+        return channel;
+    }
+
+    @Override
+    public List<EPGEvent> getEvents(final int channelPosition) {
+        return new EventList(channelPosition);
+    }
+
+    @Override
+    public EPGEvent getEvent(int channelPosition, int programPosition) {
+        return new EPGEvent(getEventStart(channelPosition, programPosition),
+                getEventEnd(channelPosition, programPosition),
+                getEventTitle(channelPosition, programPosition));
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public boolean hasData() {
+        return channelCount > 0;
+    }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return buffer.getInt(channelsOffset + channelPosition * EPGBinaryCache.CHANNEL_SIZE + 4);
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return buffer.getLong(startsOffset + (getFirstEvent(channelPosition) + programPosition) * 8);
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return buffer.getLong(endsOffset + (getFirstEvent(channelPosition) + programPosition) * 8);
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return getTitle(buffer.getInt(titleIdsOffset + (getFirstEvent(channelPosition) + programPosition) * 4));
+    }
+
+    /**
+     * Titles in the file are already distinct, the dictionary is created from them on first call.
+     */
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        if (titleDictionary == null) {
+            titleDictionary = new EPGTitleDictionary();
+            for (int i = 0; i < titleCount; i++) {
+                titleDictionary.getId(getTitle(i));
+            }
+        }
+        return titleDictionary;
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        final int first = getFirstEvent(channelPosition);
+        int low = 0;
+        int high = getEventCount(channelPosition);
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (buffer.getLong(endsOffset + (first + mid) * 8) > from) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        final int first = getFirstEvent(channelPosition);
+        int low = 0;
+        int high = getEventCount(channelPosition);
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (buffer.getLong(startsOffset + (first + mid) * 8) < to) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private int getFirstEvent(int channelPosition) {
+        return buffer.getInt(channelsOffset + channelPosition * EPGBinaryCache.CHANNEL_SIZE);
+    }
+
+    private String getTitle(int id) {
+        String title = titles[id];
+        if (title == null) {
+            title = decode(titlePoolOffset, titleCount, id);
+            titles[id] = title;
+        }
+        return title;
+    }
+
+    private String getString(int id) {
+        return id < 0 ? null : decode(stringPoolOffset, buffer.getInt(20), id);
+    }
+
+    private String decode(int poolOffset, int count, int id) {
+        final int bytesOffset = poolOffset + (count + 1) * 4;
+        final int start = buffer.getInt(poolOffset + id * 4);
+        final int end = buffer.getInt(poolOffset + (id + 1) * 4);
+
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(bytesOffset + start + i);
+        }
+        return new String(bytes, EPGBinaryCache.UTF_8);
+    }
+
+    private int poolEnd(int poolOffset, int count) {
+        return poolOffset + (count + 1) * 4 + buffer.getInt(poolOffset + count * 4);
+    }
+
+    /**
+     * Read only list creating EPGEvent objects on access.
+     */
+    private class EventList extends AbstractList<EPGEvent> implements RandomAccess {
+
+        private final int channelPosition;
+
+        EventList(int channelPosition) {
+            this.channelPosition = channelPosition;
+        }
+
+        @Override
+        public EPGEvent get(int location) {
+            return getEvent(channelPosition, location);
+        }
+
+        @Override
+        public int size() {
+            return getEventCount(channelPosition);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+
+import org.joda.time.LocalDate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import se.kmdev.tvepg.epg.EPGDataObserver;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.EPGObservableData;
+import se.kmdev.tvepg.epg.EPGWindowedData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * EPGData that can be updated in place while shown, e.g. for overruns, extended sports or late additions.
+ * Changes are applied per channel as deltas replacing the events within a time range. The range is found
+ * by binary search and the new events spliced into the channel's gap buffer, so a delta costs
+ * O(log n + k) plus the events between it and the previous change of that channel. Other channels are
+ * not touched and EPG only redraws the affected channel keeping its scroll position.
+ * As EPG's time window slides whole days before it are dropped, and days entering it are requested from
+ * a DayLoader if one is set.
+ * Must be used on main thread once passed to EPG.
+ */
+public class EPGMutableData implements EPGIndexedData, EPGObservableData, EPGWindowedData {
+
+    /**
+     * Loads days entering EPG's time window.
+     */
+    public interface DayLoader {
+
+        /**
+         * Called on main thread, events of the day are to be passed to insertEvents() on main thread,
+         * e.g. by loading them in the background and posting the result, followed by onDayLoaded(). If
+         * loading fails call onDayLoadFailed() so the day is requested again.
+         * @param dayStart start of day in local time.
+         * @param dayEnd start of next day.
+         */
+        void loadDay(EPGMutableData data, long dayStart, long dayEnd);
+    }
+
+    private final List<EPGChannel> channels;
+    private final List<EPGEventGapList> events;
+    private final EPGTitleDictionary titleDictionary;
+    private EPGDataObserver observer;
+    private DayLoader dayLoader;
+    // End of the days data holds, days up to it are covered by data passed in or loaded days
+    private long loadedUntil = Long.MIN_VALUE;
+    // End of the days loaded or being loaded, moved back when a day fails
+    private long requestedUntil = Long.MIN_VALUE;
+    private long windowEnd = Long.MIN_VALUE;
+
+    public EPGMutableData(Map<EPGChannel, List<EPGEvent>> data) {
+        this(data, new EPGTitleDictionary());
+    }
+
+    public EPGMutableData(Map<EPGChannel, List<EPGEvent>> data, EPGTitleDictionary titleDictionary) {
+        this.titleDictionary = titleDictionary;
+        channels = Lists.newArrayList(data.keySet());
+        events = Lists.newArrayListWithCapacity(data.size());
+
+        for (List<EPGEvent> channelEvents : data.values()) {
+            List<EPGEvent> internedEvents = Lists.newArrayListWithCapacity(channelEvents.size());
+            for (EPGEvent event : channelEvents) {
+                internedEvents.add(intern(event));
+            }
+            events.add(new EPGEventGapList(internedEvents));
+        }
+    }
+
+    /**
+     * Replace what a channel shows within [from, to) with given events. Events partly within the range are
+     * trimmed to the part outside it, an event covering the whole range is split in two.
+     * @param replacement events within [from, to], sorted by start time and not overlapping, empty to only
+     *                    remove events.
+     * @throws IllegalArgumentException if replacement is not sorted, overlaps or is outside the range.
+     */
+    public void replaceEvents(int channelPosition, long from, long to, List<EPGEvent> replacement) {
+        // Lookups binary search the channel so it must stay sorted and free of overlaps
+        long previousEnd = from;
+        for (EPGEvent event : replacement) {
+            if (event.getStart() < previousEnd || event.getEnd() < event.getStart() || event.getEnd() > to) {
+                throw new IllegalArgumentException("Replacement event " + event.getStart() + "-" + event.getEnd()
+                        + " is unsorted, overlapping or outside " + from + "-" + to);
+            }
+            previousEnd = event.getEnd();
+        }
+
+        EPGEventGapList channelEvents = events.get(channelPosition);
+        final int first = EPGEventSearch.firstEndingAfter(channelEvents, from);
+        final int last = EPGEventSearch.lastStartingBefore(channelEvents, to);
+
+        // Trimmed events are redrawn as a whole since their titles move
+        long changedFrom = from;
+        long changedTo = to;
+        List<EPGEvent> spliced = Lists.newArrayListWithCapacity(replacement.size() + 2);
+        if (last >= first && channelEvents.get(first).getStart() < from) {
+            final EPGEvent head = channelEvents.get(first);
+            spliced.add(new EPGEvent(head.getStart(), from, head.getTitle()));
+            changedFrom = head.getStart();
+        }
+        for (EPGEvent event : replacement) {
+            spliced.add(intern(event));
+        }
+        if (last >= first && channelEvents.get(last).getEnd() > to) {
+            final EPGEvent tail = channelEvents.get(last);
+            spliced.add(new EPGEvent(to, tail.getEnd(), tail.getTitle()));
+            changedTo = tail.getEnd();
+        }
+        channelEvents.replace(first, Math.max(0, last - first + 1), spliced);
+
+        if (observer != null) {
+            observer.onEventsChanged(channelPosition, channelPosition, changedFrom, changedTo);
+        }
+    }
+
+    /**
+     * Insert events into a channel, events already within their range are replaced and events partly
+     * within it are trimmed.
+     * @param inserted events sorted by start time and not overlapping, see EPGScheduleNormalizer.
+     * @throws IllegalArgumentException if inserted is not sorted or overlaps.
+     */
+    public void insertEvents(int channelPosition, List<EPGEvent> inserted) {
+        if (!inserted.isEmpty()) {
+            replaceEvents(channelPosition, inserted.get(0).getStart(),
+                    inserted.get(inserted.size() - 1).getEnd(), inserted);
+        }
+    }
+
+    /**
+     * Remove [from, to) from a channel, events partly within it are trimmed.
+     */
+    public void removeEvents(int channelPosition, long from, long to) {
+        replaceEvents(channelPosition, from, to, Collections.<EPGEvent>emptyList());
+    }
+
+    /**
+     * @param dayLoader called for days entering the time window, null to only drop past days.
+     */
+    public void setDayLoader(DayLoader dayLoader) {
+        this.dayLoader = dayLoader;
+    }
+
+    /**
+     * Days from the one time is in are requested from the DayLoader as they enter the window, e.g. when
+     * data was loaded up to time while the window already reaches past it.
+     */
+    public void setLoadedUntil(long time) {
+        loadedUntil = time;
+        requestedUntil = time;
+    }
+
+    /**
+     * @return end of the days all events are inserted for, days after it may still be loading.
+     */
+    public long getLoadedUntil() {
+        return loadedUntil;
+    }
+
+    /**
+     * Called by the DayLoader once all events of a day requested through loadDay() are inserted.
+     */
+    public void onDayLoaded(long dayStart, long dayEnd) {
+        if (dayStart <= loadedUntil) {
+            loadedUntil = Math.max(loadedUntil, dayEnd);
+        }
+    }
+
+    /**
+     * Called by the DayLoader when a day requested through loadDay() could not be loaded. The day and
+     * those after it are requested again on the next window change or requestMissingDays().
+     */
+    public void onDayLoadFailed(long dayStart) {
+        requestedUntil = Math.min(requestedUntil, Math.max(dayStart, loadedUntil));
+    }
+
+    /**
+     * Drop all events ending before the day the window starts on and request days up to the end of the
+     * window that were not requested before.
+     */
+    @Override
+    public void onTimeWindowChanged(long from, long to) {
+        dropEventsBefore(new LocalDate(from).toDateTimeAtStartOfDay().getMillis());
+
+        windowEnd = to;
+        if (requestedUntil == Long.MIN_VALUE) {
+            // Data passed in covers the first window
+            setLoadedUntil(getDayEnd(to));
+            return;
+        }
+        requestMissingDays();
+    }
+
+    /**
+     * Request days up to the end of the last window that are neither loaded nor loading, e.g. to retry
+     * after onDayLoadFailed().
+     */
+    public void requestMissingDays() {
+        if (windowEnd == Long.MIN_VALUE || dayLoader == null) {
+            return;
+        }
+
+        final long lastDayEnd = getDayEnd(windowEnd);
+        while (requestedUntil < lastDayEnd) {
+            final long dayStart = requestedUntil;
+            final long dayEnd = new LocalDate(dayStart).plusDays(1).toDateTimeAtStartOfDay().getMillis();
+            requestedUntil = dayEnd;
+            dayLoader.loadDay(this, dayStart, dayEnd);
+        }
+    }
+
+    /**
+     * Remove events of all channels ending at or before given time.
+     */
+    public void dropEventsBefore(long time) {
+        long droppedFrom = Long.MAX_VALUE;
+        for (EPGEventGapList channelEvents : events) {
+            final int count = EPGEventSearch.firstEndingAfter(channelEvents, time);
+            if (count > 0) {
+                droppedFrom = Math.min(droppedFrom, channelEvents.get(0).getStart());
+                channelEvents.removeFirst(count);
+            }
+        }
+
+        if (droppedFrom != Long.MAX_VALUE && observer != null) {
+            observer.onEventsChanged(0, channels.size() - 1, droppedFrom, time);
+        }
+    }
+
+    @Override
+    public void setDataObserver(EPGDataObserver observer) {
+        this.observer = observer;
+    }
+
+    @Override
+    public EPGChannel getChannel(int position) {
+        return channels.get(position);
+    }
+
+    @Override
+    public List<EPGEvent> getEvents(int channelPosition) {
+        return Collections.unmodifiableList(events.get(channelPosition));
+    }
+
+    @Override
+    public EPGEvent getEvent(int channelPosition, int programPosition) {
+        return events.get(channelPosition).get(programPosition);
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    @Override
+    public boolean hasData() {
+        return !channels.isEmpty();
+    }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return events.get(channelPosition).size();
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getStart();
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getEnd();
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getTitle();
+    }
+
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        return titleDictionary;
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        return EPGEventSearch.firstEndingAfter(events.get(channelPosition), from);
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        return EPGEventSearch.lastStartingBefore(events.get(channelPosition), to);
+    }
+
+    /**
+     * @return end of the day the exclusive window end reaches into, a window ending at midnight does not
+     * reach into the next day.
+     */
+    private static long getDayEnd(long windowEnd) {
+        return new LocalDate(windowEnd - 1).plusDays(1).toDateTimeAtStartOfDay().getMillis();
+    }
+
+    private EPGEvent intern(EPGEvent event) {
+        final String title = titleDictionary.intern(event.getTitle());
+        return title == event.getTitle() ? event : new EPGEvent(event.getStart(), event.getEnd(), title);
+    }
+}
@@ -0,0 +1,474 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import se.kmdev.tvepg.epg.EPGDataObserver;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.EPGObservableData;
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * EPGData that loads events on demand in pages of (channel band, time band) instead of holding the whole
+ * guide in memory. EPG reports its viewport through onViewportChanged() while scrolling, pages around it
+ * are loaded asynchronously through a PageLoader with prefetch in scroll direction, and pages far from
+ * the viewport are evicted. Until a page is loaded isLoaded() returns false and EPG draws a placeholder.
+ * Channels are known up front, only events are paged. Event positions change as pages are loaded and
+ * evicted so they are only valid until the next change notified through EPGDataObserver.
+ * Pages that fail to load are retried with back-off while they stay around the viewport. The title
+ * dictionary is rebuilt from the loaded events when it has doubled since last time, so titles of evicted
+ * pages don't add up while scrolling, get it again from getTitleDictionary() after a change.
+ * All methods must be called on main thread.
+ */
+public class EPGPagedData implements EPGIndexedData, EPGObservableData {
+
+    public static final int DEFAULT_CHANNELS_PER_PAGE = 20;
+    public static final long DEFAULT_PAGE_MILLIS = 6 * 60 * 60 * 1000L;   // 6 hours
+
+    private static final String TAG = "EPGPagedData";
+    private static final int PREFETCH_PAGES = 2;    // pages loaded ahead in scroll direction
+    private static final int KEEP_PAGES = 1;        // pages kept around viewport in other directions
+    private static final long RETRY_MIN_MILLIS = 1000;
+    private static final long RETRY_MAX_MILLIS = 60 * 1000;
+    private static final int MIN_COMPACT_TITLES = 1024;
+
+    /**
+     * Loads the events of one page.
+     */
+    public interface PageLoader {
+
+        /**
+         * Called on a worker thread.
+         * @return one list of events per channel from first to last channel position, both inclusive.
+         * Lists must be sorted by start time and contain events overlapping [from, to).
+         */
+        List<List<EPGEvent>> loadPage(int firstChannelPosition, int lastChannelPosition, long from, long to)
+                throws Exception;
+    }
+
+    private final List<EPGChannel> channels;
+    private final List<List<EPGEvent>> events;
+    private final PageLoader pageLoader;
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LongSparseArray<Page> pages = new LongSparseArray<Page>();
+    private final int channelsPerPage;
+    private final long pageMillis;
+    private final long origin;
+
+    private EPGTitleDictionary titleDictionary = new EPGTitleDictionary();
+    private int compactTitles = MIN_COMPACT_TITLES;
+    private EPGDataObserver observer;
+    private int windowFirstChannelBand = Integer.MIN_VALUE;
+    private int windowLastChannelBand;
+    private int windowFirstTimeBand;
+    private int windowLastTimeBand;
+    private boolean landingPinned;
+    private int landingFirstChannelBand;
+    private int landingLastChannelBand;
+    private int landingFirstTimeBand;
+    private int landingLastTimeBand;
+
+    public EPGPagedData(List<EPGChannel> channels, PageLoader pageLoader, Executor executor) {
+        this(channels, pageLoader, executor, DEFAULT_CHANNELS_PER_PAGE, DEFAULT_PAGE_MILLIS, 0);
+    }
+
+    /**
+     * @param executor pages are loaded on, should be bounded.
+     * @param origin time pages are aligned to, e.g. midnight to get pages aligned with the day.
+     */
+    public EPGPagedData(List<EPGChannel> channels, PageLoader pageLoader, Executor executor,
+                        int channelsPerPage, long pageMillis, long origin) {
+        this.channels = Lists.newArrayList(channels);
+        this.pageLoader = pageLoader;
+        this.executor = executor;
+        this.channelsPerPage = channelsPerPage;
+        this.pageMillis = pageMillis;
+        this.origin = origin;
+
+        events = Lists.newArrayListWithCapacity(channels.size());
+        for (int i = 0; i < channels.size(); i++) {
+            events.add(Lists.<EPGEvent>newArrayList());
+        }
+    }
+
+    /**
+     * Called by EPG when visible area changes. Loads missing pages around viewport, visible ones first, and
+     * evicts pages far away from it.
+     * @param dx horizontal scroll direction, positive when moving forward in time.
+     * @param dy vertical scroll direction, positive when moving down in the channel list.
+     */
+    public void onViewportChanged(int firstChannelPosition, int lastChannelPosition, long from, long to,
+                                  int dx, int dy) {
+        if (channels.isEmpty()) {
+            return;
+        }
+
+        final int visibleFirstChannelBand = Math.max(firstChannelPosition, 0) / channelsPerPage;
+        final int visibleLastChannelBand = Math.min(lastChannelPosition, channels.size() - 1) / channelsPerPage;
+        final int visibleFirstTimeBand = getTimeBand(from);
+        final int visibleLastTimeBand = getTimeBand(to - 1);
+        final int maxChannelBand = (channels.size() - 1) / channelsPerPage;
+
+        final int firstChannelBand = Math.max(0, visibleFirstChannelBand - (dy < 0 ? PREFETCH_PAGES : KEEP_PAGES));
+        final int lastChannelBand = Math.min(maxChannelBand, visibleLastChannelBand + (dy > 0 ? PREFETCH_PAGES : KEEP_PAGES));
+        final int firstTimeBand = visibleFirstTimeBand - (dx < 0 ? PREFETCH_PAGES : KEEP_PAGES);
+        final int lastTimeBand = visibleLastTimeBand + (dx > 0 ? PREFETCH_PAGES : KEEP_PAGES);
+
+        if (firstChannelBand == windowFirstChannelBand && lastChannelBand == windowLastChannelBand
+                && firstTimeBand == windowFirstTimeBand && lastTimeBand == windowLastTimeBand) {
+            return;
+        }
+
+        windowFirstChannelBand = firstChannelBand;
+        windowLastChannelBand = lastChannelBand;
+        windowFirstTimeBand = firstTimeBand;
+        windowLastTimeBand = lastTimeBand;
+
+        // Visible pages first, then the ones around
+        requestPages(visibleFirstChannelBand, visibleLastChannelBand, visibleFirstTimeBand, visibleLastTimeBand);
+        requestPages(firstChannelBand, lastChannelBand, firstTimeBand, lastTimeBand);
+
+        evictPages(firstChannelBand - 1, lastChannelBand + 1, firstTimeBand - 1, lastTimeBand + 1);
+    }
+
+    /**
+     * Called by EPG when a fling starts with the viewport it will end at. Pages of that viewport are
+     * requested right away and kept while scrolling towards it, pages of an earlier landing viewport
+     * are released.
+     */
+    public void onFlingLanding(int firstChannelPosition, int lastChannelPosition, long from, long to) {
+        cancelFlingLanding();
+        if (channels.isEmpty()) {
+            return;
+        }
+
+        landingPinned = true;
+        landingFirstChannelBand = Math.max(firstChannelPosition, 0) / channelsPerPage;
+        landingLastChannelBand = Math.min(lastChannelPosition, channels.size() - 1) / channelsPerPage;
+        landingFirstTimeBand = getTimeBand(from);
+        landingLastTimeBand = getTimeBand(to - 1);
+
+        requestPages(landingFirstChannelBand, landingLastChannelBand, landingFirstTimeBand, landingLastTimeBand);
+    }
+
+    /**
+     * Release pages kept by onFlingLanding(), e.g. when the fling is stopped or has ended. Pages not
+     * around the current viewport are evicted, queued loads of them are skipped.
+     */
+    public void cancelFlingLanding() {
+        if (!landingPinned) {
+            return;
+        }
+
+        landingPinned = false;
+        if (windowFirstChannelBand != Integer.MIN_VALUE) {
+            evictPages(windowFirstChannelBand - 1, windowLastChannelBand + 1,
+                    windowFirstTimeBand - 1, windowLastTimeBand + 1);
+        }
+    }
+
+    /**
+     * @return true if events of the page containing given channel and time are loaded.
+     */
+    public boolean isLoaded(int channelPosition, long time) {
+        Page page = pages.get(getPageKey(channelPosition / channelsPerPage, getTimeBand(time)));
+        return page != null && page.loaded;
+    }
+
+    /**
+     * @return start of the page time band containing given time.
+     */
+    public long getPageStart(long time) {
+        return origin + getTimeBand(time) * pageMillis;
+    }
+
+    public long getPageMillis() {
+        return pageMillis;
+    }
+
+    @Override
+    public void setDataObserver(EPGDataObserver observer) {
+        this.observer = observer;
+    }
+
+    @Override
+    public EPGChannel getChannel(int position) {
+        return channels.get(position);
+    }
+
+    @Override
+    public List<EPGEvent> getEvents(int channelPosition) {
+        return events.get(channelPosition);
+    }
+
+    @Override
+    public EPGEvent getEvent(int channelPosition, int programPosition) {
+        return events.get(channelPosition).get(programPosition);
+    }
+
+    @Override
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    @Override
+    public boolean hasData() {
+        return !channels.isEmpty();
+    }
+
+    @Override
+    public int getEventCount(int channelPosition) {
+        return events.get(channelPosition).size();
+    }
+
+    @Override
+    public long getEventStart(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getStart();
+    }
+
+    @Override
+    public long getEventEnd(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getEnd();
+    }
+
+    @Override
+    public String getEventTitle(int channelPosition, int programPosition) {
+        return getEvent(channelPosition, programPosition).getTitle();
+    }
+
+    @Override
+    public EPGTitleDictionary getTitleDictionary() {
+        return titleDictionary;
+    }
+
+    @Override
+    public int getFirstEventPosition(int channelPosition, long from) {
+        return EPGEventSearch.firstEndingAfter(events.get(channelPosition), from);
+    }
+
+    @Override
+    public int getLastEventPosition(int channelPosition, long to) {
+        return EPGEventSearch.lastStartingBefore(events.get(channelPosition), to);
+    }
+
+    private void requestPages(int firstChannelBand, int lastChannelBand, int firstTimeBand, int lastTimeBand) {
+        for (int channelBand = firstChannelBand; channelBand <= lastChannelBand; channelBand++) {
+            for (int timeBand = firstTimeBand; timeBand <= lastTimeBand; timeBand++) {
+                final long key = getPageKey(channelBand, timeBand);
+                if (pages.get(key) == null) {
+                    loadPage(key, new Page(channelBand, timeBand));
+                }
+            }
+        }
+    }
+
+    private void loadPage(final long key, final Page page) {
+        pages.put(key, page);
+
+        final int firstChannel = page.channelBand * channelsPerPage;
+        final int lastChannel = Math.min(firstChannel + channelsPerPage, channels.size()) - 1;
+        final long from = origin + page.timeBand * pageMillis;
+        final long to = from + pageMillis;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (page.cancelled) {
+                    // Evicted while queued
+                    return;
+                }
+
+                List<List<EPGEvent>> result = null;
+                try {
+                    result = pageLoader.loadPage(firstChannel, lastChannel, from, to);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to load page " + page.channelBand + ":" + page.timeBand, e);
+                }
+
+                final List<List<EPGEvent>> pageEvents = result;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(key, page, pageEvents, firstChannel, lastChannel, from, to);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(long key, Page page, List<List<EPGEvent>> pageEvents,
+                              int firstChannel, int lastChannel, long from, long to) {
+        if (pages.get(key) != page) {
+            // Evicted while loading
+            return;
+        }
+
+        if (pageEvents == null) {
+            // Viewport may not change again, so retry instead of waiting for it
+            scheduleRetry(key, page);
+            return;
+        }
+
+        for (int i = 0; i < pageEvents.size() && firstChannel + i <= lastChannel; i++) {
+            events.set(firstChannel + i, merge(events.get(firstChannel + i), pageEvents.get(i)));
+        }
+        page.loaded = true;
+
+        if (observer != null) {
+            observer.onEventsChanged(firstChannel, lastChannel, from, to);
+        }
+    }
+
+    private void scheduleRetry(final long key, final Page page) {
+        final long delay = Math.min(RETRY_MAX_MILLIS, RETRY_MIN_MILLIS << Math.min(page.failures, 16));
+        page.failures++;
+
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (pages.get(key) == page && !page.cancelled) {
+                    loadPage(key, page);
+                }
+            }
+        }, delay);
+    }
+
+    /**
+     * Merge two sorted lists into a new one, events from page that are already present are skipped.
+     */
+    private List<EPGEvent> merge(List<EPGEvent> current, List<EPGEvent> page) {
+        List<EPGEvent> result = Lists.newArrayListWithCapacity(current.size() + page.size());
+        int i = 0;
+        int j = 0;
+
+        while (i < current.size() || j < page.size()) {
+            if (j == page.size() || (i < current.size() && current.get(i).getStart() < page.get(j).getStart())) {
+                result.add(current.get(i++));
+            } else if (i < current.size() && current.get(i).getStart() == page.get(j).getStart()) {
+                result.add(current.get(i++));
+                j++;
+            } else {
+                result.add(intern(page.get(j++)));
+            }
+        }
+        return result;
+    }
+
+    private EPGEvent intern(EPGEvent event) {
+        final String title = titleDictionary.intern(event.getTitle());
+        return title == event.getTitle() ? event : new EPGEvent(event.getStart(), event.getEnd(), title);
+    }
+
+    private void evictPages(int firstChannelBand, int lastChannelBand, int firstTimeBand, int lastTimeBand) {
+        boolean removed = false;
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            Page page = pages.valueAt(i);
+            if (isLandingPage(page)) {
+                continue;
+            }
+            if (page.channelBand < firstChannelBand || page.channelBand > lastChannelBand
+                    || page.timeBand < firstTimeBand || page.timeBand > lastTimeBand) {
+                pages.removeAt(i);
+                page.cancelled = true;
+                if (page.loaded) {
+                    removeEvents(page);
+                    removed = true;
+                }
+            }
+        }
+
+        if (removed && titleDictionary.size() >= compactTitles) {
+            compactTitleDictionary();
+        }
+    }
+
+    /**
+     * Replace the title dictionary with one holding only titles of loaded events. Events keep their
+     * String instances, so they are still shared through the new dictionary.
+     */
+    private void compactTitleDictionary() {
+        final EPGTitleDictionary compacted = new EPGTitleDictionary();
+        for (List<EPGEvent> channelEvents : events) {
+            for (EPGEvent event : channelEvents) {
+                compacted.getId(event.getTitle());
+            }
+        }
+        titleDictionary = compacted;
+        compactTitles = Math.max(MIN_COMPACT_TITLES, compacted.size() * 2);
+    }
+
+    private boolean isLandingPage(Page page) {
+        return landingPinned
+                && page.channelBand >= landingFirstChannelBand && page.channelBand <= landingLastChannelBand
+                && page.timeBand >= landingFirstTimeBand && page.timeBand <= landingLastTimeBand;
+    }
+
+    /**
+     * Remove events of an evicted page that are not part of any other loaded page.
+     */
+    private void removeEvents(Page page) {
+        final int firstChannel = page.channelBand * channelsPerPage;
+        final int lastChannel = Math.min(firstChannel + channelsPerPage, channels.size()) - 1;
+        final long from = origin + page.timeBand * pageMillis;
+        final long to = from + pageMillis;
+
+        for (int channel = firstChannel; channel <= lastChannel; channel++) {
+            List<EPGEvent> channelEvents = events.get(channel);
+            final int first = EPGEventSearch.firstEndingAfter(channelEvents, from);
+            final int last = EPGEventSearch.lastStartingBefore(channelEvents, to);
+
+            for (int pos = last; pos >= first; pos--) {
+                EPGEvent event = channelEvents.get(pos);
+                if (!isCoveredByLoadedPage(page.channelBand, event.getStart(), event.getEnd())) {
+                    channelEvents.remove(pos);
+                }
+            }
+        }
+
+        if (observer != null) {
+            observer.onEventsChanged(firstChannel, lastChannel, from, to);
+        }
+    }
+
+    private boolean isCoveredByLoadedPage(int channelBand, long start, long end) {
+        for (int timeBand = getTimeBand(start); timeBand <= getTimeBand(end - 1); timeBand++) {
+            Page page = pages.get(getPageKey(channelBand, timeBand));
+            if (page != null && page.loaded) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getTimeBand(long time) {
+        final long offset = time - origin;
+        return (int) (offset >= 0 ? offset / pageMillis : (offset - pageMillis + 1) / pageMillis);
+    }
+
+    private static long getPageKey(int channelBand, int timeBand) {
+        return ((long) channelBand << 32) | (timeBand & 0xffffffffL);
+    }
+
+    private static class Page {
+
+        final int channelBand;
+        final int timeBand;
+        boolean loaded;
+        int failures;
+        volatile boolean cancelled;
+
+        Page(int channelBand, int timeBand) {
+            this.channelBand = channelBand;
+            this.timeBand = timeBand;
+        }
+    }
+}
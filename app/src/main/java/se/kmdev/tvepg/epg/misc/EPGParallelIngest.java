@@ -0,0 +1,256 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Builds EPGColumnarData with the schedules of channels loaded, sorted, validated and packed in parallel.
+ * Channels are split in chunks, each chunk is done by one task with its own EPGTitleDictionary so workers
+ * share nothing. When all chunks are done their dictionaries are merged into one and title ids of each
+ * chunk are remapped to it, again in parallel. Events with no title or that don't end after they start
+ * are skipped, and each channel is normalized if an EPGScheduleNormalizer is set.
+ */
+public class EPGParallelIngest {
+
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * Schedules of the channels to ingest.
+     */
+    public interface ScheduleSource {
+
+        int getChannelCount();
+
+        EPGChannel getChannel(int channelPosition);
+
+        /**
+         * Called on a worker thread, e.g. to fetch or parse the schedule of one channel.
+         * @return events of channel in any order.
+         */
+        List<EPGEvent> loadSchedule(int channelPosition) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private EPGScheduleNormalizer normalizer;
+
+    /**
+     * @param executor to run tasks on, should be bounded to about the number of cores.
+     * @param parallelism number of threads of executor, used to size chunks.
+     */
+    public EPGParallelIngest(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return executor with one background thread per core, or given number of threads, for ingest.
+     */
+    public static ExecutorService newWorkerPool(int threadCount) {
+        final int threads = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EPGIngest-" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    public EPGColumnarData ingest(final Map<EPGChannel, List<EPGEvent>> data)
+            throws InterruptedException, ExecutionException {
+        final List<EPGChannel> channels = Lists.newArrayList(data.keySet());
+        final List<List<EPGEvent>> schedules = Lists.newArrayList(data.values());
+
+        return ingest(new ScheduleSource() {
+            @Override
+            public int getChannelCount() {
+                return channels.size();
+            }
+
+            @Override
+            public EPGChannel getChannel(int channelPosition) {
+                return channels.get(channelPosition);
+            }
+
+            @Override
+            public List<EPGEvent> loadSchedule(int channelPosition) {
+                return schedules.get(channelPosition);
+            }
+        });
+    }
+
+    /**
+     * Blocks until all channels are ingested. Remaining tasks are cancelled if one fails or the calling
+     * thread is interrupted.
+     */
+    public EPGColumnarData ingest(ScheduleSource source) throws InterruptedException, ExecutionException {
+        skippedCount.set(0);
+
+        final int channelCount = source.getChannelCount();
+        final EPGChannel[] channels = new EPGChannel[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channels[i] = source.getChannel(i);
+        }
+
+        final long[][] starts = new long[channelCount][];
+        final long[][] ends = new long[channelCount][];
+        final int[][] titleIds = new int[channelCount][];
+
+        // Fork a task per chunk of channels
+        final int chunkSize = Math.max(1, (channelCount + parallelism * CHUNKS_PER_THREAD - 1)
+                / (parallelism * CHUNKS_PER_THREAD));
+        List<Chunk> chunks = Lists.newArrayList();
+        for (int first = 0; first < channelCount; first += chunkSize) {
+            chunks.add(new Chunk(source, first, Math.min(first + chunkSize, channelCount), starts, ends, titleIds));
+        }
+        invokeAll(chunks);
+
+        // Join, merging dictionaries in chunk order so ids are the same as a sequential ingest
+        final EPGTitleDictionary titleDictionary = new EPGTitleDictionary();
+        List<Callable<Void>> remaps = Lists.newArrayList();
+        for (final Chunk chunk : chunks) {
+            final int[] remap = titleDictionary.merge(chunk.titleDictionary);
+
+            remaps.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int channel = chunk.first; channel < chunk.last; channel++) {
+                        final int[] ids = titleIds[channel];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = remap[ids[i]];
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        invokeAll(remaps);
+
+        return new EPGColumnarData(channels, starts, ends, titleIds, titleDictionary);
+    }
+
+    /**
+     * @param normalizer to remove overlaps and duplicates and fill gaps of each channel, null to only sort.
+     */
+    public void setNormalizer(EPGScheduleNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * @return number of events skipped by the last ingest for being invalid.
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    private void invokeAll(List<? extends Callable<Void>> tasks) throws InterruptedException, ExecutionException {
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(tasks.size());
+        try {
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Loads, validates, packs and sorts channels [first, last) into the shared arrays, each chunk only
+     * writes its own channels.
+     */
+    private class Chunk implements Callable<Void> {
+
+        final ScheduleSource source;
+        final int first;
+        final int last;
+        final long[][] starts;
+        final long[][] ends;
+        final int[][] titleIds;
+        final EPGTitleDictionary titleDictionary = new EPGTitleDictionary();
+
+        Chunk(ScheduleSource source, int first, int last, long[][] starts, long[][] ends, int[][] titleIds) {
+            this.source = source;
+            this.first = first;
+            this.last = last;
+            this.starts = starts;
+            this.ends = ends;
+            this.titleIds = titleIds;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            for (int channel = first; channel < last; channel++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                final List<EPGEvent> events = source.loadSchedule(channel);
+                final int size = events != null ? events.size() : 0;
+                long[] channelStarts = new long[size];
+                long[] channelEnds = new long[size];
+                int[] channelTitleIds = new int[size];
+                int count = 0;
+
+                if (events != null) {
+                    for (EPGEvent event : events) {
+                        if (event.getTitle() == null || event.getEnd() <= event.getStart()) {
+                            skippedCount.incrementAndGet();
+                            continue;
+                        }
+                        channelStarts[count] = event.getStart();
+                        channelEnds[count] = event.getEnd();
+                        channelTitleIds[count] = titleDictionary.getId(event.getTitle());
+                        count++;
+                    }
+                }
+
+                if (normalizer != null) {
+                    final EPGScheduleNormalizer.Schedule schedule = normalizer.normalize(
+                            channelStarts, channelEnds, channelTitleIds, count, titleDictionary);
+                    channelStarts = schedule.getStarts();
+                    channelEnds = schedule.getEnds();
+                    channelTitleIds = schedule.getTitleIds();
+                } else {
+                    if (count < size) {
+                        channelStarts = Arrays.copyOf(channelStarts, count);
+                        channelEnds = Arrays.copyOf(channelEnds, count);
+                        channelTitleIds = Arrays.copyOf(channelTitleIds, count);
+                    }
+                    EPGColumnarData.sortByStart(channelStarts, channelEnds, channelTitleIds, 0, count - 1);
+                }
+
+                starts[channel] = channelStarts;
+                ends[channel] = channelEnds;
+                titleIds[channel] = channelTitleIds;
+            }
+            return null;
+        }
+    }
+}
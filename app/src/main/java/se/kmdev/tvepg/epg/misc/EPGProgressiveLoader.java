@@ -0,0 +1,356 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.joda.time.LocalDate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Loads a guide in order of what is seen first so something can be drawn before everything is loaded.
+ * First the channel list and a screen of channels around now, handed over as EPGMutableData to be shown
+ * right away, then the rest of the channels around now, then a day at a time forward and back until the
+ * whole range is loaded. Later events are added to the EPGMutableData on main thread as each batch of
+ * channels is loaded, and the listener is told each time the fully loaded range grows so scroll bounds
+ * can follow. Loading runs on one task of the executor and stops on cancel(). If a worker pool is set the
+ * batches of channels of each step are loaded in parallel on it and added in channel order.
+ * If an EPGScheduleNormalizer is set each loaded list is normalized on the worker before it is added.
+ * Once loaded it can be set as DayLoader of the data to load days entering the window the same way, days
+ * that fail are requested again with back-off.
+ */
+public class EPGProgressiveLoader implements EPGMutableData.DayLoader {
+
+    private static final long NOW_MARGIN_MILLIS = 3 * 60 * 60 * 1000L;   // loaded before and after now first
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int CHANNEL_BATCH = 50;
+    private static final long DAY_RETRY_MIN_MILLIS = 30 * 1000L;
+    private static final long DAY_RETRY_MAX_MILLIS = 30 * 60 * 1000L;
+
+    /**
+     * Where channels and events come from, called on a worker thread, events of several channels at once
+     * if a worker pool is set.
+     */
+    public interface Source {
+
+        List<EPGChannel> loadChannels() throws Exception;
+
+        /**
+         * @return events of channel overlapping [from, to), sorted by start time.
+         */
+        List<EPGEvent> loadEvents(int channelPosition, EPGChannel channel, long from, long to) throws Exception;
+    }
+
+    /**
+     * Called on main thread, not after cancel().
+     */
+    public interface Listener {
+
+        /**
+         * First screen of channels is loaded around now, set data to EPG. More events are added to it later.
+         */
+        void onFirstScreenLoaded(EPGMutableData data, long from, long to);
+
+        /**
+         * Events of all channels within [from, to) are loaded. Only called when a whole step, the hours
+         * around now or a day, is loaded for every channel, so the range grows a day at a time.
+         */
+        void onRangeLoaded(long from, long to);
+
+        /**
+         * Whole range is loaded, data is marked as loaded until its end so a DayLoader set on it continues
+         * from there.
+         */
+        void onLoadCompleted(EPGMutableData data);
+
+        void onLoadFailed(Exception e);
+    }
+
+    private final Source source;
+    private final Listener listener;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+    private Future<?> future;
+    private EPGScheduleNormalizer normalizer;
+    private ExecutorService workerPool;
+    private int parallelism = 1;
+    // Set by the first task, read by day loads submitted after it
+    private volatile List<EPGChannel> channels;
+    // Days failed in a row, only used on main thread
+    private int dayFailures;
+
+    public EPGProgressiveLoader(Source source, Listener listener, ExecutorService executor) {
+        this.source = source;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * @param normalizer to sort and remove overlaps of the events of each channel, set before start().
+     */
+    public void setNormalizer(EPGScheduleNormalizer normalizer) {
+        this.normalizer = normalizer;
+    }
+
+    /**
+     * @param workerPool to load batches of channels in parallel on, e.g. EPGParallelIngest.newWorkerPool(),
+     *                   set before start(). Loading is coordinated on the executor, which must not be it.
+     * @param parallelism number of threads of workerPool, used to size batches.
+     */
+    public void setWorkerPool(ExecutorService workerPool, int parallelism) {
+        this.workerPool = workerPool;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @param firstScreenChannels number of channels shown at first.
+     * @param daysBackMillis time before now to load in the end.
+     * @param daysForwardMillis time after now to load in the end, rounded up to the end of that day.
+     */
+    public void start(final int firstScreenChannels, final long daysBackMillis, final long daysForwardMillis) {
+        future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load(firstScreenChannels, System.currentTimeMillis(), daysBackMillis, daysForwardMillis);
+                } catch (final Exception e) {
+                    postToListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onLoadFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop loading, nothing more is added to data and listener is not called again.
+     */
+    public void cancel() {
+        cancelled = true;
+        if (future != null) {
+            future.cancel(true);
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    private void load(int firstScreenChannels, long now, long daysBackMillis, long daysForwardMillis)
+            throws Exception {
+        channels = source.loadChannels();
+        final int firstCount = Math.min(firstScreenChannels, channels.size());
+        final long nowFrom = now - Math.min(NOW_MARGIN_MILLIS, daysBackMillis);
+        final long nowTo = now + Math.min(NOW_MARGIN_MILLIS, daysForwardMillis);
+
+        // First screen, other channels are empty until loaded
+        Map<EPGChannel, List<EPGEvent>> firstScreen = Maps.newLinkedHashMap();
+        for (int i = 0; i < channels.size(); i++) {
+            checkCancelled();
+            firstScreen.put(channels.get(i), i < firstCount
+                    ? loadEvents(i, channels.get(i), nowFrom, nowTo)
+                    : Lists.<EPGEvent>newArrayList());
+        }
+        final EPGMutableData data = new EPGMutableData(firstScreen);
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFirstScreenLoaded(data, nowFrom, nowTo);
+            }
+        });
+
+        loadRange(data, channels, firstCount, nowFrom, nowTo);
+        postRangeLoaded(nowFrom, nowTo);
+
+        // Then a day at a time, forward before back since what is coming is looked at more
+        long loadedFrom = nowFrom;
+        long loadedTo = nowTo;
+        final long from = now - daysBackMillis;
+        // Last day is loaded to its end since EPGMutableData asks DayLoader for whole days after it
+        final long to = new LocalDate(now + daysForwardMillis).plusDays(1).toDateTimeAtStartOfDay().getMillis();
+        while (loadedFrom > from || loadedTo < to) {
+            if (loadedTo < to) {
+                final long dayEnd = Math.min(loadedTo + DAY_MILLIS, to);
+                loadRange(data, channels, 0, loadedTo, dayEnd);
+                loadedTo = dayEnd;
+                postRangeLoaded(loadedFrom, loadedTo);
+            }
+            if (loadedFrom > from) {
+                final long dayStart = Math.max(loadedFrom - DAY_MILLIS, from);
+                loadRange(data, channels, 0, dayStart, loadedFrom);
+                loadedFrom = dayStart;
+                postRangeLoaded(loadedFrom, loadedTo);
+            }
+        }
+
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                data.setLoadedUntil(to);
+                listener.onLoadCompleted(data);
+            }
+        });
+    }
+
+    /**
+     * Load a day of all channels after loading completed, e.g. when EPG's time window slides past midnight.
+     */
+    @Override
+    public void loadDay(final EPGMutableData data, final long dayStart, final long dayEnd) {
+        if (cancelled || channels == null) {
+            return;
+        }
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loadRange(data, channels, 0, dayStart, dayEnd);
+                    postToListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            dayFailures = 0;
+                            data.onDayLoaded(dayStart, dayEnd);
+                        }
+                    });
+                } catch (final Exception e) {
+                    postToListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            data.onDayLoadFailed(dayStart);
+                            scheduleDayRetry(data);
+                            listener.onLoadFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Request failed days again after a delay doubling with each failure in a row.
+     */
+    private void scheduleDayRetry(final EPGMutableData data) {
+        final long delay = Math.min(DAY_RETRY_MAX_MILLIS, DAY_RETRY_MIN_MILLIS << Math.min(dayFailures, 16));
+        dayFailures++;
+        mainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                data.requestMissingDays();
+            }
+        }, delay);
+    }
+
+    /**
+     * Load [from, to) of channels from given position in batches, each batch is added to data on main thread
+     * in channel order.
+     */
+    private void loadRange(final EPGMutableData data, final List<EPGChannel> channels, int firstChannel,
+                           final long from, final long to) throws Exception {
+        // Batches are smaller when loaded in parallel so every worker gets some
+        final int batchSize = workerPool == null ? CHANNEL_BATCH
+                : Math.max(1, Math.min(CHANNEL_BATCH, (channels.size() - firstChannel) / (parallelism * 4)));
+        final List<Future<List<List<EPGEvent>>>> futures = Lists.newArrayList();
+
+        try {
+            for (int batchStart = firstChannel; batchStart < channels.size(); batchStart += batchSize) {
+                final int first = batchStart;
+                final int end = Math.min(first + batchSize, channels.size());
+                final Callable<List<List<EPGEvent>>> batch = new Callable<List<List<EPGEvent>>>() {
+                    @Override
+                    public List<List<EPGEvent>> call() throws Exception {
+                        final List<List<EPGEvent>> events = Lists.newArrayListWithCapacity(end - first);
+                        for (int i = first; i < end; i++) {
+                            checkCancelled();
+                            events.add(loadEvents(i, channels.get(i), from, to));
+                        }
+                        return events;
+                    }
+                };
+
+                if (workerPool != null) {
+                    futures.add(workerPool.submit(batch));
+                } else {
+                    postBatch(data, first, batch.call());
+                }
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                postBatch(data, firstChannel + i * batchSize, getResult(futures.get(i)));
+            }
+        } finally {
+            // Batches not done yet when one failed or loading was cancelled
+            for (Future<List<List<EPGEvent>>> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void postBatch(final EPGMutableData data, final int first, final List<List<EPGEvent>> batch) {
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                // Events overlapping the edge of a loaded range replace the same event loaded before
+                for (int i = 0; i < batch.size(); i++) {
+                    data.insertEvents(first + i, batch.get(i));
+                }
+            }
+        });
+    }
+
+    private static <T> T getResult(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private List<EPGEvent> loadEvents(int channelPosition, EPGChannel channel, long from, long to)
+            throws Exception {
+        final List<EPGEvent> events = source.loadEvents(channelPosition, channel, from, to);
+        // Title ids are only needed while normalizing, data interns the titles into its own dictionary
+        return normalizer != null ? normalizer.normalize(events, new EPGTitleDictionary()) : events;
+    }
+
+    private void postRangeLoaded(final long from, final long to) {
+        postToListener(new Runnable() {
+            @Override
+            public void run() {
+                listener.onRangeLoaded(from, to);
+            }
+        });
+    }
+
+    private void postToListener(final Runnable runnable) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!cancelled) {
+                    runnable.run();
+                }
+            }
+        });
+    }
+
+    private void checkCancelled() throws InterruptedException {
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Makes the schedule of a channel sorted by start time and free of overlaps, which the binary searches of
+ * EPGIndexedData and the early exit when drawing rely on. After sorting, one pass over the events merges
+ * duplicates (same start and title), resolves overlaps by the OverlapPolicy and drops events that don't
+ * end after they start. Gaps of at least a given length are filled with NO_INFO_TITLE events, which only
+ * cost a title id in EPGColumnarData. Counts of what was changed are kept over all channels normalized.
+ * Thread safe, one normalizer can be shared by the chunks of EPGParallelIngest.
+ */
+public class EPGScheduleNormalizer {
+
+    public static final String NO_INFO_TITLE = "No information";
+    public static final long NO_GAP_FILL = Long.MAX_VALUE;
+
+    public enum OverlapPolicy {
+        /**
+         * Later event starts when the earlier ends, dropped if it ends before that.
+         */
+        KEEP_EARLIER,
+        /**
+         * Earlier events end when the later starts, dropped if they start at or after that.
+         */
+        KEEP_LATER
+    }
+
+    /**
+     * Normalized events of one channel in exactly sized arrays.
+     */
+    public static class Schedule {
+
+        private final long[] starts;
+        private final long[] ends;
+        private final int[] titleIds;
+
+        Schedule(long[] starts, long[] ends, int[] titleIds) {
+            this.starts = starts;
+            this.ends = ends;
+            this.titleIds = titleIds;
+        }
+
+        public long[] getStarts() {
+            return starts;
+        }
+
+        public long[] getEnds() {
+            return ends;
+        }
+
+        public int[] getTitleIds() {
+            return titleIds;
+        }
+    }
+
+    private final OverlapPolicy overlapPolicy;
+    private final long minGapMillis;
+
+    private final AtomicInteger channelCount = new AtomicInteger();
+    private final AtomicInteger unsortedCount = new AtomicInteger();
+    private final AtomicInteger duplicateCount = new AtomicInteger();
+    private final AtomicInteger overlapCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicInteger gapCount = new AtomicInteger();
+
+    /**
+     * @param minGapMillis gaps at least this long are filled, NO_GAP_FILL to leave gaps.
+     */
+    public EPGScheduleNormalizer(OverlapPolicy overlapPolicy, long minGapMillis) {
+        this.overlapPolicy = overlapPolicy;
+        this.minGapMillis = Math.max(1, minGapMillis);
+    }
+
+    /**
+     * Normalize [0, count) of the arrays, which are sorted in place.
+     * @param titleDictionary dictionary titleIds refer to, NO_INFO_TITLE is added to it for gaps.
+     */
+    public Schedule normalize(long[] starts, long[] ends, int[] titleIds, int count,
+                              EPGTitleDictionary titleDictionary) {
+        channelCount.incrementAndGet();
+        if (!EPGColumnarData.isSorted(starts, 0, count - 1)) {
+            unsortedCount.incrementAndGet();
+            EPGColumnarData.sortByStart(starts, ends, titleIds, 0, count - 1);
+        }
+
+        // Every event but the first can add at most one gap before it
+        final int capacity = Math.max(0, count * 2 - 1);
+        final long[] outStarts = new long[capacity];
+        final long[] outEnds = new long[capacity];
+        final int[] outTitleIds = new int[capacity];
+        int noInfoTitleId = -1;
+        int size = 0;
+
+        for (int i = 0; i < count; i++) {
+            long start = starts[i];
+            final long end = ends[i];
+            final int titleId = titleIds[i];
+
+            if (end <= start) {
+                droppedCount.incrementAndGet();
+                continue;
+            }
+
+            if (size > 0 && start == outStarts[size - 1] && titleId == outTitleIds[size - 1]) {
+                outEnds[size - 1] = Math.max(outEnds[size - 1], end);
+                duplicateCount.incrementAndGet();
+                continue;
+            }
+
+            if (size > 0 && start < outEnds[size - 1]) {
+                overlapCount.incrementAndGet();
+                if (overlapPolicy == OverlapPolicy.KEEP_EARLIER) {
+                    if (end <= outEnds[size - 1]) {
+                        droppedCount.incrementAndGet();
+                        continue;
+                    }
+                    start = outEnds[size - 1];
+                } else {
+                    // Only a tail of what is kept so far can end after start, each event is removed at most once
+                    while (size > 0 && outEnds[size - 1] > start) {
+                        if (outStarts[size - 1] < start) {
+                            outEnds[size - 1] = start;
+                            break;
+                        }
+                        size--;
+                        droppedCount.incrementAndGet();
+                    }
+                }
+            }
+
+            if (size > 0 && start - outEnds[size - 1] >= minGapMillis) {
+                if (noInfoTitleId == -1) {
+                    noInfoTitleId = titleDictionary.getId(NO_INFO_TITLE);
+                }
+                outStarts[size] = outEnds[size - 1];
+                outEnds[size] = start;
+                outTitleIds[size] = noInfoTitleId;
+                size++;
+                gapCount.incrementAndGet();
+            }
+
+            outStarts[size] = start;
+            outEnds[size] = end;
+            outTitleIds[size] = titleId;
+            size++;
+        }
+
+        return new Schedule(Arrays.copyOf(outStarts, size), Arrays.copyOf(outEnds, size),
+                Arrays.copyOf(outTitleIds, size));
+    }
+
+    /**
+     * Normalize events of one channel, e.g. before passing them to EPGMutableData. Events with no title
+     * are dropped.
+     * @return new list of events with titles interned into titleDictionary.
+     */
+    public List<EPGEvent> normalize(List<EPGEvent> events, EPGTitleDictionary titleDictionary) {
+        final long[] starts = new long[events.size()];
+        final long[] ends = new long[events.size()];
+        final int[] titleIds = new int[events.size()];
+        int count = 0;
+
+        for (EPGEvent event : events) {
+            if (event.getTitle() == null) {
+                droppedCount.incrementAndGet();
+                continue;
+            }
+            starts[count] = event.getStart();
+            ends[count] = event.getEnd();
+            titleIds[count] = titleDictionary.getId(event.getTitle());
+            count++;
+        }
+
+        final Schedule schedule = normalize(starts, ends, titleIds, count, titleDictionary);
+        final List<EPGEvent> result = Lists.newArrayListWithCapacity(schedule.starts.length);
+        for (int i = 0; i < schedule.starts.length; i++) {
+            result.add(new EPGEvent(schedule.starts[i], schedule.ends[i],
+                    titleDictionary.getTitle(schedule.titleIds[i])));
+        }
+        return result;
+    }
+
+    public int getChannelCount() {
+        return channelCount.get();
+    }
+
+    /**
+     * @return number of channels that were not sorted by start time.
+     */
+    public int getUnsortedCount() {
+        return unsortedCount.get();
+    }
+
+    public int getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return number of events overlapping an earlier event.
+     */
+    public int getOverlapCount() {
+        return overlapCount.get();
+    }
+
+    /**
+     * @return number of events dropped for being empty, having no title or losing an overlap.
+     */
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getGapCount() {
+        return gapCount.get();
+    }
+
+    public void resetStats() {
+        channelCount.set(0);
+        unsortedCount.set(0);
+        duplicateCount.set(0);
+        overlapCount.set(0);
+        droppedCount.set(0);
+        gapCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "EPGScheduleNormalizer{channels=" + getChannelCount() + ", unsorted=" + getUnsortedCount()
+                + ", duplicates=" + getDuplicateCount() + ", overlaps=" + getOverlapCount()
+                + ", dropped=" + getDroppedCount() + ", gaps=" + getGapCount() + "}";
+    }
+}
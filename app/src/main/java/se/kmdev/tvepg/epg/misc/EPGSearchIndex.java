@@ -0,0 +1,515 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+import se.kmdev.tvepg.epg.EPGData;
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Full text search over event titles. Titles are indexed once per distinct title, not per event: queries of
+ * three characters or more are matched through a trigram index, shorter ones as a prefix of a word in the
+ * title. Each title has its airings sorted by start, so a query only touches matching titles and the
+ * airings within the time range, merged in start order until enough hits are found.
+ * Built at ingest with build() or incrementally with add(). When the data changes pass the range
+ * EPGDataObserver reports to update(), which replaces the airings of those channels within it. Titles
+ * left without airings stay in the index but give no hits. Not thread safe, build it on one thread and
+ * query it on another only after it is handed over.
+ */
+public class EPGSearchIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int GRAM = 3;
+
+    private final EPGTitleDictionary titles = new EPGTitleDictionary();
+    private final Map<Long, IntArray> trigrams = Maps.newHashMap();
+    private String[] normalizedTitles = new String[64];
+    private Airings[] airings = new Airings[64];
+    // Ids of titles with airings on each channel, may hold duplicates until the channel is next removed from
+    private IntArray[] channelTitles = new IntArray[0];
+
+    // Words of all titles sorted, for prefix queries shorter than a trigram. Rebuilt after titles are added.
+    private String[] words;
+    private int[] wordTitleIds;
+
+    /**
+     * A matching event.
+     */
+    public static class Hit {
+
+        private final int channelPosition;
+        private final long start;
+        private final long end;
+        private final String title;
+
+        Hit(int channelPosition, long start, long end, String title) {
+            this.channelPosition = channelPosition;
+            this.start = start;
+            this.end = end;
+            this.title = title;
+        }
+
+        public int getChannelPosition() {
+            return channelPosition;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * Index all events of given data.
+     */
+    public static EPGSearchIndex build(EPGData epgData) {
+        EPGSearchIndex index = new EPGSearchIndex();
+
+        for (int channelPosition = 0; channelPosition < epgData.getChannelCount(); channelPosition++) {
+            if (epgData instanceof EPGIndexedData) {
+                EPGIndexedData indexedData = (EPGIndexedData) epgData;
+                final int eventCount = indexedData.getEventCount(channelPosition);
+                for (int i = 0; i < eventCount; i++) {
+                    index.add(channelPosition, indexedData.getEventStart(channelPosition, i),
+                            indexedData.getEventEnd(channelPosition, i), indexedData.getEventTitle(channelPosition, i));
+                }
+            } else if (epgData.getEvents(channelPosition) != null) {
+                for (EPGEvent event : epgData.getEvents(channelPosition)) {
+                    index.add(channelPosition, event.getStart(), event.getEnd(), event.getTitle());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Add an event, may be called in any order.
+     */
+    public void add(int channelPosition, long start, long end, String title) {
+        if (title == null) {
+            return;
+        }
+
+        final int sizeBefore = titles.size();
+        final int id = titles.getId(title);
+        if (titles.size() != sizeBefore) {
+            addTitle(id, title);
+        }
+        airings[id].add(channelPosition, start, end);
+
+        if (channelPosition >= channelTitles.length) {
+            channelTitles = Arrays.copyOf(channelTitles, Math.max(channelPosition + 1, channelTitles.length * 2));
+        }
+        if (channelTitles[channelPosition] == null) {
+            channelTitles[channelPosition] = new IntArray();
+        }
+        IntArray ids = channelTitles[channelPosition];
+        if (ids.size == 0 || ids.values[ids.size - 1] != id) {
+            ids.add(id);
+        }
+    }
+
+    /**
+     * Remove airings of a channel overlapping [from, to). Only titles that have airings on the channel
+     * are touched.
+     */
+    public void removeChannelRange(int channelPosition, long from, long to) {
+        if (channelPosition >= channelTitles.length || channelTitles[channelPosition] == null) {
+            return;
+        }
+
+        IntArray ids = channelTitles[channelPosition];
+        int[] titleIds = Arrays.copyOf(ids.values, ids.size);
+        Arrays.sort(titleIds);
+
+        // Keep each title once and only while it still has airings on the channel
+        ids.size = 0;
+        for (int i = 0; i < titleIds.length; i++) {
+            if ((i == 0 || titleIds[i] != titleIds[i - 1])
+                    && airings[titleIds[i]].removeChannel(channelPosition, from, to)) {
+                ids.add(titleIds[i]);
+            }
+        }
+    }
+
+    /**
+     * Replace airings of given channels, both inclusive, overlapping [from, to) with the events of data
+     * in that range, e.g. with what EPGDataObserver.onEventsChanged() reports after data was changed.
+     */
+    public void update(EPGIndexedData epgData, int firstChannelPosition, int lastChannelPosition,
+                       long from, long to) {
+        for (int channelPosition = firstChannelPosition; channelPosition <= lastChannelPosition; channelPosition++) {
+            removeChannelRange(channelPosition, from, to);
+
+            final int first = epgData.getFirstEventPosition(channelPosition, from);
+            final int last = epgData.getLastEventPosition(channelPosition, to);
+            for (int i = first; i <= last; i++) {
+                add(channelPosition, epgData.getEventStart(channelPosition, i),
+                        epgData.getEventEnd(channelPosition, i), epgData.getEventTitle(channelPosition, i));
+            }
+        }
+    }
+
+    /**
+     * @param query text to find in titles, case and accents are ignored.
+     * @param from only events ending after from are returned, Long.MIN_VALUE for no limit.
+     * @param to only events starting before to are returned, Long.MAX_VALUE for no limit.
+     * @param maxHits maximum number of hits returned.
+     * @return matching events sorted by start time.
+     */
+    public List<Hit> search(String query, long from, long to, int maxHits) {
+        final String normalizedQuery = normalize(query).trim();
+        if (normalizedQuery.isEmpty() || maxHits <= 0) {
+            return Collections.emptyList();
+        }
+
+        final int[] titleIds = normalizedQuery.length() >= GRAM
+                ? findTitlesContaining(normalizedQuery)
+                : findTitlesWithWordPrefix(normalizedQuery);
+
+        return mergeAirings(titleIds, from, to, maxHits);
+    }
+
+    /**
+     * @return number of distinct titles indexed.
+     */
+    public int getTitleCount() {
+        return titles.size();
+    }
+
+    private void addTitle(int id, String title) {
+        if (id == airings.length) {
+            airings = Arrays.copyOf(airings, id * 2);
+            normalizedTitles = Arrays.copyOf(normalizedTitles, id * 2);
+        }
+
+        final String normalizedTitle = normalize(title);
+        normalizedTitles[id] = normalizedTitle;
+        airings[id] = new Airings();
+
+        // Ids are added in increasing order so each posting list stays sorted
+        for (int i = 0; i + GRAM <= normalizedTitle.length(); i++) {
+            final long trigram = trigram(normalizedTitle, i);
+            IntArray titleIds = trigrams.get(trigram);
+            if (titleIds == null) {
+                titleIds = new IntArray();
+                trigrams.put(trigram, titleIds);
+            }
+            if (titleIds.size == 0 || titleIds.values[titleIds.size - 1] != id) {
+                titleIds.add(id);
+            }
+        }
+        words = null;
+    }
+
+    /**
+     * Intersect posting lists of query trigrams, shortest first, and verify the candidates since trigrams
+     * can match in other order than in the query.
+     */
+    private int[] findTitlesContaining(String normalizedQuery) {
+        final int gramCount = normalizedQuery.length() - GRAM + 1;
+        IntArray[] postings = new IntArray[gramCount];
+        for (int i = 0; i < gramCount; i++) {
+            postings[i] = trigrams.get(trigram(normalizedQuery, i));
+            if (postings[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(postings, new Comparator<IntArray>() {
+            @Override
+            public int compare(IntArray a, IntArray b) {
+                return a.size - b.size;
+            }
+        });
+
+        int[] candidates = Arrays.copyOf(postings[0].values, postings[0].size);
+        int candidateCount = candidates.length;
+        for (int i = 1; i < gramCount && candidateCount > 0; i++) {
+            candidateCount = intersect(candidates, candidateCount, postings[i]);
+        }
+
+        int matchCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            if (normalizedTitles[candidates[i]].contains(normalizedQuery)) {
+                candidates[matchCount++] = candidates[i];
+            }
+        }
+        return Arrays.copyOf(candidates, matchCount);
+    }
+
+    /**
+     * Keep candidates also in postings, both are sorted.
+     * @return number of candidates kept at the start of candidates.
+     */
+    private static int intersect(int[] candidates, int candidateCount, IntArray postings) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < candidateCount && j < postings.size; i++) {
+            while (j < postings.size && postings.values[j] < candidates[i]) {
+                j++;
+            }
+            if (j < postings.size && postings.values[j] == candidates[i]) {
+                candidates[kept++] = candidates[i];
+            }
+        }
+        return kept;
+    }
+
+    private int[] findTitlesWithWordPrefix(String prefix) {
+        if (words == null) {
+            buildWords();
+        }
+
+        // Words starting with prefix are a range in the sorted words
+        int index = Arrays.binarySearch(words, prefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        IntArray titleIds = new IntArray();
+        for (int i = index; i < words.length && words[i].startsWith(prefix); i++) {
+            titleIds.add(wordTitleIds[i]);
+        }
+
+        int[] result = Arrays.copyOf(titleIds.values, titleIds.size);
+        Arrays.sort(result);
+
+        // A title having several words with the prefix is only returned once
+        int count = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (count == 0 || result[count - 1] != result[i]) {
+                result[count++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void buildWords() {
+        final List<String> allWords = Lists.newArrayList();
+        final IntArray allTitleIds = new IntArray();
+        for (int id = 0; id < titles.size(); id++) {
+            for (String word : WORD_SEPARATORS.split(normalizedTitles[id])) {
+                if (!word.isEmpty()) {
+                    allWords.add(word);
+                    allTitleIds.add(id);
+                }
+            }
+        }
+
+        Integer[] order = new Integer[allWords.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return allWords.get(a).compareTo(allWords.get(b));
+            }
+        });
+
+        words = new String[order.length];
+        wordTitleIds = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            words[i] = allWords.get(order[i]);
+            wordTitleIds[i] = allTitleIds.values[order[i]];
+        }
+    }
+
+    /**
+     * Merge airings of titles in start order, each title's airings are binary searched for the range.
+     */
+    private List<Hit> mergeAirings(int[] titleIds, long from, long to, int maxHits) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, titleIds.length));
+        for (int id : titleIds) {
+            Airings titleAirings = airings[id];
+            titleAirings.sort();
+            final int first = titleAirings.firstEndingAfter(from);
+            if (first < titleAirings.size && titleAirings.starts[first] < to) {
+                queue.add(new Cursor(id, first, titleAirings.starts[first]));
+            }
+        }
+
+        List<Hit> hits = Lists.newArrayList();
+        while (!queue.isEmpty() && hits.size() < maxHits) {
+            Cursor cursor = queue.poll();
+            Airings titleAirings = airings[cursor.titleId];
+            final int i = cursor.position;
+            if (titleAirings.ends[i] > from) {
+                hits.add(new Hit(titleAirings.channels[i], titleAirings.starts[i], titleAirings.ends[i],
+                        titles.getTitle(cursor.titleId)));
+            }
+
+            if (i + 1 < titleAirings.size && titleAirings.starts[i + 1] < to) {
+                cursor.position = i + 1;
+                cursor.start = titleAirings.starts[i + 1];
+                queue.add(cursor);
+            }
+        }
+        return hits;
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    static String normalize(String text) {
+        final String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+
+        final int titleId;
+        int position;
+        long start;
+
+        Cursor(int titleId, int position, long start) {
+            this.titleId = titleId;
+            this.position = position;
+            this.start = start;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return start < other.start ? -1 : (start == other.start ? 0 : 1);
+        }
+    }
+
+    /**
+     * Airings of one title, sorted by start on first query after being added to.
+     */
+    private static class Airings {
+
+        int[] channels = new int[4];
+        long[] starts = new long[4];
+        long[] ends = new long[4];
+        int size;
+        boolean sorted = true;
+        // Longest airing bounds how far before a time an airing still running at it can start
+        long maxLength;
+
+        void add(int channelPosition, long start, long end) {
+            if (size == starts.length) {
+                channels = Arrays.copyOf(channels, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            if (size > 0 && start < starts[size - 1]) {
+                sorted = false;
+            }
+            channels[size] = channelPosition;
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+            maxLength = Math.max(maxLength, end - start);
+        }
+
+        void sort() {
+            if (sorted) {
+                return;
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return starts[a] < starts[b] ? -1 : (starts[a] == starts[b] ? 0 : 1);
+                }
+            });
+
+            int[] sortedChannels = new int[size];
+            long[] sortedStarts = new long[size];
+            long[] sortedEnds = new long[size];
+            for (int i = 0; i < size; i++) {
+                sortedChannels[i] = channels[order[i]];
+                sortedStarts[i] = starts[order[i]];
+                sortedEnds[i] = ends[order[i]];
+            }
+            channels = sortedChannels;
+            starts = sortedStarts;
+            ends = sortedEnds;
+            sorted = true;
+        }
+
+        /**
+         * Remove airings of channel overlapping [from, to), the rest keep their order.
+         * @return true if channel still has airings of the title.
+         */
+        boolean removeChannel(int channelPosition, long from, long to) {
+            boolean remaining = false;
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (channels[i] == channelPosition) {
+                    if (ends[i] > from && starts[i] < to) {
+                        continue;
+                    }
+                    remaining = true;
+                }
+                channels[kept] = channels[i];
+                starts[kept] = starts[i];
+                ends[kept] = ends[i];
+                kept++;
+            }
+            size = kept;
+            return remaining;
+        }
+
+        /**
+         * Airings of a title can overlap on different channels, so the first one ending after from is found
+         * on start and the merge skips the few ending earlier.
+         */
+        int firstEndingAfter(long from) {
+            if (from == Long.MIN_VALUE) {
+                return 0;
+            }
+
+            final long startFrom = from - maxLength;
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (starts[mid] > startFrom) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class IntArray {
+
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
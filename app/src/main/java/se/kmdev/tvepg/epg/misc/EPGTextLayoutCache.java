@@ -0,0 +1,108 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Bounded cache of event titles fitted to an available width. Avoids measuring text and allocating
+ * substrings for every visible event on every frame while scrolling.
+ * Entries are keyed by channel, event start, width and title instance. The cache is direct mapped,
+ * an entry is simply replaced when another key lands on the same slot, so lookups never allocate.
+ * Must be cleared when text size or zoom changes since stored layouts depend on them.
+ */
+public class EPGTextLayoutCache {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private final int mask;
+    private final int[] channels;
+    private final long[] starts;
+    private final int[] widths;
+    private final String[] titles;
+    private final String[] fittedTitles;
+    private final int[] textOffsets;
+    private final Rect measuringRect = new Rect();
+
+    private long hits;
+    private long misses;
+
+    public EPGTextLayoutCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity max number of layouts kept, rounded up to power of two.
+     */
+    public EPGTextLayoutCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        channels = new int[size];
+        starts = new long[size];
+        widths = new int[size];
+        titles = new String[size];
+        fittedTitles = new String[size];
+        textOffsets = new int[size];
+    }
+
+    /**
+     * Find layout for title, measuring with given paint on a miss. Paint must have text size set.
+     * @return slot to be passed to getFittedTitle() and getTextOffset() before next call to get().
+     */
+    public int get(int channelPosition, long start, String title, int width, Paint paint) {
+        final int slot = slot(channelPosition, start, width);
+
+        if (titles[slot] == title && channels[slot] == channelPosition
+                && starts[slot] == start && widths[slot] == width) {
+            hits++;
+            return slot;
+        }
+
+        misses++;
+        paint.getTextBounds(title, 0, title.length(), measuringRect);
+
+        channels[slot] = channelPosition;
+        starts[slot] = start;
+        widths[slot] = width;
+        titles[slot] = title;
+        fittedTitles[slot] = title.substring(0, paint.breakText(title, true, Math.max(width, 0), null));
+        textOffsets[slot] = measuringRect.height() / 2;
+        return slot;
+    }
+
+    /**
+     * @return title cut to fit the width asked for.
+     */
+    public String getFittedTitle(int slot) {
+        return fittedTitles[slot];
+    }
+
+    /**
+     * @return half the height of the title text, used to center it vertically.
+     */
+    public int getTextOffset(int slot) {
+        return textOffsets[slot];
+    }
+
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            titles[i] = null;
+            fittedTitles[i] = null;
+        }
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    private int slot(int channelPosition, long start, int width) {
+        int hash = (int) (start ^ (start >>> 32));
+        hash = 31 * hash + channelPosition;
+        hash = 31 * hash + width;
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
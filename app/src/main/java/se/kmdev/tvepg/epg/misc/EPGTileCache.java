@@ -0,0 +1,188 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * Pool of offscreen bitmap tiles for the program grid. A tile holds the rendered events of a band of
+ * channels and a band of time, keyed by (channel band, time band). Tiles are blitted while scrolling
+ * and only rendered again when invalidated or when the current event highlight in them changes.
+ * The pool is bounded, when full the least recently used tile and its bitmap are reused.
+ * Lookups are linear over the pool which is small, nothing is allocated once all tiles are created.
+ */
+public class EPGTileCache {
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final Tile[] tiles;
+    private int tileCount;
+    private long frame;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxTiles max number of tiles, at least the number visible at once. Spare tiles avoid rendering
+     *                 tiles again while scrolling back and forth, each costs tileWidth * tileHeight * 4 bytes.
+     */
+    public EPGTileCache(int tileWidth, int tileHeight, int maxTiles) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tiles = new Tile[maxTiles];
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Marks the start of a new frame. Tiles used in current frame are not evicted unless the pool is
+     * too small for the screen.
+     */
+    public void nextFrame() {
+        frame++;
+    }
+
+    /**
+     * Get tile for given bands. Returned tile may need rendering, check isValid() before drawing it.
+     */
+    public Tile get(int channelBand, int timeBand) {
+        Tile leastRecentlyUsed = null;
+
+        for (int i = 0; i < tileCount; i++) {
+            Tile tile = tiles[i];
+            if (tile.channelBand == channelBand && tile.timeBand == timeBand) {
+                tile.lastUsed = frame;
+                if (tile.valid) {
+                    hits++;
+                } else {
+                    misses++;
+                }
+                return tile;
+            }
+            if (leastRecentlyUsed == null || tile.lastUsed < leastRecentlyUsed.lastUsed) {
+                leastRecentlyUsed = tile;
+            }
+        }
+
+        misses++;
+        Tile tile;
+        if (tileCount < tiles.length) {
+            tile = new Tile(Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ARGB_8888));
+            tiles[tileCount++] = tile;
+        } else {
+            tile = leastRecentlyUsed;
+            evictions++;
+        }
+
+        tile.channelBand = channelBand;
+        tile.timeBand = timeBand;
+        tile.valid = false;
+        tile.lastUsed = frame;
+        return tile;
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < tileCount; i++) {
+            tiles[i].valid = false;
+        }
+    }
+
+    /**
+     * Invalidate tiles of given channel bands, both inclusive.
+     */
+    public void invalidateChannelBands(int firstChannelBand, int lastChannelBand) {
+        for (int i = 0; i < tileCount; i++) {
+            Tile tile = tiles[i];
+            if (tile.channelBand >= firstChannelBand && tile.channelBand <= lastChannelBand) {
+                tile.valid = false;
+            }
+        }
+    }
+
+    /**
+     * Releases all bitmaps, tiles are created again when needed.
+     */
+    public void clear() {
+        for (int i = 0; i < tileCount; i++) {
+            tiles[i].bitmap.recycle();
+            tiles[i] = null;
+        }
+        tileCount = 0;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public static class Tile {
+
+        private final Bitmap bitmap;
+        private final Canvas canvas;
+        private int channelBand;
+        private int timeBand;
+        private boolean valid;
+        private long validUntil;
+        private long lastUsed;
+
+        private Tile(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.canvas = new Canvas(bitmap);
+        }
+
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /**
+         * @return canvas drawing into the tile bitmap.
+         */
+        public Canvas getCanvas() {
+            return canvas;
+        }
+
+        public int getChannelBand() {
+            return channelBand;
+        }
+
+        public int getTimeBand() {
+            return timeBand;
+        }
+
+        /**
+         * @return true if tile is rendered and still correct at given time.
+         */
+        public boolean isValid(long now) {
+            return valid && now < validUntil;
+        }
+
+        /**
+         * @return time when what the tile shows changes, only meaningful while valid.
+         */
+        public long getValidUntil() {
+            return validUntil;
+        }
+
+        /**
+         * Mark tile as rendered.
+         * @param validUntil time when what the tile shows changes, e.g. when an event in it becomes current.
+         */
+        public void setRendered(long validUntil) {
+            this.valid = true;
+            this.validUntil = validUntil;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package se.kmdev.tvepg.epg.misc;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed time labels and weekday names for a time range. Everything is formatted once when
+ * created so looking up labels while drawing does not format or allocate anything.
+ * Labels exist for every multiple of spacing in local time within the range, so zones offset by e.g.
+ * +05:45 have labels for their own whole and half hours. Weekday names exist for every day touching it.
+ */
+public class EPGTimeLabels {
+
+    // Formats local millis, which are already offset to the zone
+    private static final DateTimeFormatter dtfShortTime = DateTimeFormat.forPattern("HH:mm").withZoneUTC();
+
+    private final long spacing;
+    private final long firstSlot;
+    private final String[] shortTimes;
+    private final long[] dayStarts;
+    private final String[] weekdayNames;
+    private final DateTimeZone zone;
+
+    public EPGTimeLabels(long from, long to, long spacing) {
+        this.spacing = spacing;
+        this.zone = DateTimeZone.getDefault();
+
+        // Short time for each multiple of spacing in local time
+        firstSlot = floorDiv(toLocal(from), spacing);
+        final int slotCount = (int) (floorDiv(toLocal(to), spacing) - firstSlot + 1);
+        shortTimes = new String[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            shortTimes[i] = dtfShortTime.print((firstSlot + i) * spacing);
+        }
+
+        // Start and name of each day, plus start of the day after as end marker
+        LocalDate firstDay = new LocalDate(from, zone);
+        LocalDate lastDay = new LocalDate(to, zone);
+        final int dayCount = Days.daysBetween(firstDay, lastDay).getDays() + 2;
+
+        dayStarts = new long[dayCount];
+        weekdayNames = new String[dayCount];
+        LocalDate day = firstDay;
+        for (int i = 0; i < dayCount; i++) {
+            DateTime start = day.toDateTimeAtStartOfDay(zone);
+            dayStarts[i] = start.getMillis();
+            weekdayNames[i] = start.dayOfWeek().getAsText();
+            day = day.plusDays(1);
+        }
+    }
+
+    /**
+     * @return label for time or null if time is not a multiple of spacing in local time within the range.
+     */
+    public String getShortTime(long timeMillis) {
+        final long localMillis = toLocal(timeMillis);
+        if (localMillis % spacing != 0) {
+            return null;
+        }
+
+        final long index = floorDiv(localMillis, spacing) - firstSlot;
+        return index >= 0 && index < shortTimes.length ? shortTimes[(int) index] : null;
+    }
+
+    /**
+     * @return name of weekday for time or null if time is outside the range.
+     */
+    public String getWeekdayName(long timeMillis) {
+        int index = Arrays.binarySearch(dayStarts, timeMillis);
+        if (index < 0) {
+            // Insertion point minus one is the day time is within
+            index = -index - 2;
+        }
+        return index >= 0 && index < dayStarts.length - 1 ? weekdayNames[index] : null;
+    }
+
+    /**
+     * @return true if labels covers given range and were created for the current time zone.
+     */
+    public boolean covers(long from, long to, long spacing) {
+        return this.spacing == spacing && zone.equals(DateTimeZone.getDefault())
+                && floorDiv(toLocal(from), spacing) >= firstSlot
+                && floorDiv(toLocal(to), spacing) < firstSlot + shortTimes.length;
+    }
+
+    private long toLocal(long timeMillis) {
+        return timeMillis + zone.getOffset(timeMillis);
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long result = value / divisor;
+        return (value % divisor != 0 && (value < 0) != (divisor < 0)) ? result - 1 : result;
+    }
+}
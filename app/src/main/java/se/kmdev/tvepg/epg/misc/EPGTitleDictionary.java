@@ -0,0 +1,109 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Deduplicates event titles at ingest. Every distinct title is stored once and gets an id,
+ * events then refer to the shared String or to the id. Reruns, news blocks etc. makes the number
+ * of distinct titles a small fraction of the number of events in a full guide.
+ * Not thread safe, intern from one thread or synchronize externally.
+ */
+public class EPGTitleDictionary {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, Integer> ids = Maps.newHashMap();
+    private String[] titles = new String[INITIAL_CAPACITY];
+    private int size;
+    private long lookups;
+
+    /**
+     * @return id of given title, adding it if it is not known yet.
+     */
+    public int getId(String title) {
+        lookups++;
+
+        Integer id = ids.get(title);
+        if (id == null) {
+            if (size == titles.length) {
+                titles = Arrays.copyOf(titles, size * 2);
+            }
+            id = size;
+            titles[size++] = title;
+            ids.put(title, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return shared instance of given title, to be used instead of the passed in String.
+     */
+    public String intern(String title) {
+        // getId() may grow titles so it must be called before the array is read
+        final int id = getId(title);
+        return titles[id];
+    }
+
+    public String getTitle(int id) {
+        return titles[id];
+    }
+
+    /**
+     * @return number of distinct titles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add all titles of other, e.g. one filled by a worker thread. Lookups of other are added to this so
+     * counts are the same as if all titles had been passed in here.
+     * @return id in this dictionary of each id of other.
+     */
+    int[] merge(EPGTitleDictionary other) {
+        final int[] remap = new int[other.size];
+        for (int id = 0; id < other.size; id++) {
+            remap[id] = getId(other.titles[id]);
+        }
+        lookups += other.lookups - other.size;
+        return remap;
+    }
+
+    /**
+     * @return number of titles passed in through getId() or intern().
+     */
+    public long getLookupCount() {
+        return lookups;
+    }
+
+    /**
+     * @return titles passed in per distinct title, 1 means nothing was deduplicated.
+     */
+    public float getDedupRatio() {
+        return size == 0 ? 1f : lookups / (float) size;
+    }
+
+    /**
+     * @return estimated heap used by the dictionary, strings already present in counted are not included.
+     */
+    public long getEstimatedHeapBytes(Map<Object, Boolean> counted) {
+        // HashMap with one entry and one boxed id per title.
+        long bytes = EPGHeapEstimate.object(6 * 4) + EPGHeapEstimate.array(size * 4 / 3, EPGHeapEstimate.REFERENCE);
+        bytes += size * (EPGHeapEstimate.object(4 * EPGHeapEstimate.REFERENCE) + EPGHeapEstimate.object(4));
+        bytes += EPGHeapEstimate.array(titles.length, EPGHeapEstimate.REFERENCE);
+
+        for (int i = 0; i < size; i++) {
+            bytes += EPGHeapEstimate.string(titles[i], counted);
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "EPGTitleDictionary{distinct=" + size + ", lookups=" + lookups
+                + ", dedupRatio=" + getDedupRatio() + "}";
+    }
+}
@@ -20,25 +20,62 @@ public class EPGUtil {
     private static final String TAG = "EPGUtil";
     private static final DateTimeFormatter dtfShortTime = DateTimeFormat.forPattern("HH:mm");
     private static Picasso picasso = null;
+    private static EPGTimeLabels timeLabels = null;
+
+    /**
+     * Precompute time labels and weekday names for given range so getShortTime() and getWeekdayName()
+     * don't have to format anything while drawing. Does nothing if range is already prepared.
+     * @param spacing time between labels, only multiples of it are precomputed.
+     */
+    public static void prepareTimeLabels(long from, long to, long spacing) {
+        if (timeLabels == null || !timeLabels.covers(from, to, spacing)) {
+            timeLabels = new EPGTimeLabels(from, to, spacing);
+        }
+    }
 
     public static String getShortTime(long timeMillis) {
+        if (timeLabels != null) {
+            String shortTime = timeLabels.getShortTime(timeMillis);
+            if (shortTime != null) {
+                return shortTime;
+            }
+        }
         return dtfShortTime.print(timeMillis);
     }
 
     public static String getWeekdayName(long dateMillis) {
+        if (timeLabels != null) {
+            String weekdayName = timeLabels.getWeekdayName(dateMillis);
+            if (weekdayName != null) {
+                return weekdayName;
+            }
+        }
         LocalDate date = new LocalDate(dateMillis);
         return date.dayOfWeek().getAsText();
     }
 
     public static void loadImageInto(Context context, String url, int width, int height, Target target) {
+        loadImageInto(context, url, width, height, Picasso.Priority.NORMAL, target);
+    }
+
+    public static void loadImageInto(Context context, String url, int width, int height,
+                                     Picasso.Priority priority, Target target) {
         initPicasso(context);
 
         picasso.load(url)
                 .resize(width, height)
                 .centerInside()
+                .priority(priority)
+                .skipMemoryCache()
                 .into(target);
     }
 
+    public static void cancelRequest(Context context, Target target) {
+        initPicasso(context);
+
+        picasso.cancelRequest(target);
+    }
+
     private static void initPicasso(Context context) {
         if (picasso == null) {
             picasso = new Picasso.Builder(context)
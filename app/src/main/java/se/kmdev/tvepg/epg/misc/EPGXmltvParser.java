@@ -0,0 +1,266 @@
+package se.kmdev.tvepg.epg.misc;
+
+import android.util.Xml;
+
+import com.google.common.collect.Maps;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+
+/**
+ * Streaming parser for XMLTV guides. Reads the document in a single pass with a pull parser and feeds
+ * channels and programmes straight into an EPGColumnarData.Builder, no DOM or intermediate event objects
+ * are created so memory is bounded by the size of the resulting store.
+ * Channels are added in document order. Programmes referring to a channel not declared before them adds
+ * the channel with its id as name. Programmes without start, stop or channel are skipped.
+ * Times without zone offset are treated as UTC.
+ */
+public class EPGXmltvParser {
+
+    private static final String TAG_CHANNEL = "channel";
+    private static final String TAG_PROGRAMME = "programme";
+    private static final String TAG_DISPLAY_NAME = "display-name";
+    private static final String TAG_ICON = "icon";
+    private static final String TAG_TITLE = "title";
+
+    private static final int HEAP_SAMPLE_INTERVAL = 10000;     // events
+
+    private final Map<String, Integer> channelPositions = Maps.newHashMap();
+    private final Stats stats = new Stats();
+
+    public EPGColumnarData parse(InputStream in) throws IOException, XmlPullParserException {
+        return parse(in, new EPGColumnarData.Builder());
+    }
+
+    public EPGColumnarData parse(InputStream in, EPGColumnarData.Builder builder)
+            throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setInput(in, null);
+        return parse(parser, builder);
+    }
+
+    /**
+     * Parse from a parser that already has its input set.
+     */
+    public EPGColumnarData parse(XmlPullParser parser, EPGColumnarData.Builder builder)
+            throws IOException, XmlPullParserException {
+        final long startTime = System.currentTimeMillis();
+        channelPositions.clear();
+        stats.reset();
+        sampleHeap();
+
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                final String name = parser.getName();
+                if (TAG_PROGRAMME.equals(name)) {
+                    parseProgramme(parser, builder);
+                } else if (TAG_CHANNEL.equals(name)) {
+                    parseChannel(parser, builder);
+                }
+            }
+            eventType = parser.next();
+        }
+
+        EPGColumnarData epgData = builder.build();
+
+        sampleHeap();
+        stats.millis = System.currentTimeMillis() - startTime;
+        return epgData;
+    }
+
+    /**
+     * @return statistics of the last parse.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    private void parseChannel(XmlPullParser parser, EPGColumnarData.Builder builder)
+            throws IOException, XmlPullParserException {
+        final String id = parser.getAttributeValue(null, "id");
+        String name = null;
+        String imageURL = null;
+
+        final int depth = parser.getDepth();
+        int eventType = parser.next();
+        while (!(eventType == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (eventType == XmlPullParser.START_TAG) {
+                if (name == null && TAG_DISPLAY_NAME.equals(parser.getName())) {
+                    name = parser.nextText();
+                } else if (imageURL == null && TAG_ICON.equals(parser.getName())) {
+                    imageURL = parser.getAttributeValue(null, "src");
+                }
+            }
+            eventType = parser.next();
+        }
+
+        if (id != null && !channelPositions.containsKey(id)) {
+            channelPositions.put(id, builder.addChannel(new EPGChannel(imageURL, name != null ? name : id, id)));
+            stats.channels++;
+        }
+    }
+
+    private void parseProgramme(XmlPullParser parser, EPGColumnarData.Builder builder)
+            throws IOException, XmlPullParserException {
+        final String channelId = parser.getAttributeValue(null, "channel");
+        final String start = parser.getAttributeValue(null, "start");
+        final String stop = parser.getAttributeValue(null, "stop");
+        String title = null;
+
+        final int depth = parser.getDepth();
+        int eventType = parser.next();
+        while (!(eventType == XmlPullParser.END_TAG && parser.getDepth() == depth)) {
+            if (eventType == XmlPullParser.START_TAG && title == null && TAG_TITLE.equals(parser.getName())) {
+                title = parser.nextText();
+            }
+            eventType = parser.next();
+        }
+
+        if (channelId == null || start == null || stop == null) {
+            stats.skipped++;
+            return;
+        }
+
+        Integer channelPosition = channelPositions.get(channelId);
+        if (channelPosition == null) {
+            channelPosition = builder.addChannel(new EPGChannel(null, channelId, channelId));
+            channelPositions.put(channelId, channelPosition);
+            stats.channels++;
+        }
+
+        try {
+            builder.addEvent(channelPosition, parseTime(start), parseTime(stop), title != null ? title : "");
+        } catch (IllegalArgumentException e) {
+            stats.skipped++;
+            return;
+        }
+
+        if (++stats.events % HEAP_SAMPLE_INTERVAL == 0) {
+            sampleHeap();
+        }
+    }
+
+    private void sampleHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        stats.peakHeapBytes = Math.max(stats.peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Parse XMLTV time, "yyyyMMddHHmmss +hhmm" where seconds and zone offset are optional.
+     */
+    static long parseTime(String time) {
+        if (time.length() < 12) {
+            throw new IllegalArgumentException("Invalid XMLTV time " + time);
+        }
+
+        final int year = digits(time, 0, 4);
+        final int month = digits(time, 4, 2);
+        final int day = digits(time, 6, 2);
+        final int hour = digits(time, 8, 2);
+        final int minute = digits(time, 10, 2);
+        int second = 0;
+        int index = 12;
+
+        if (time.length() >= 14 && Character.isDigit(time.charAt(12))) {
+            second = digits(time, 12, 2);
+            index = 14;
+        }
+
+        // Optional zone offset, +hhmm or -hhmm
+        int offsetMinutes = 0;
+        while (index < time.length() && time.charAt(index) == ' ') {
+            index++;
+        }
+        if (index + 5 <= time.length() && (time.charAt(index) == '+' || time.charAt(index) == '-')) {
+            offsetMinutes = digits(time, index + 1, 2) * 60 + digits(time, index + 3, 2);
+            if (time.charAt(index) == '-') {
+                offsetMinutes = -offsetMinutes;
+            }
+        }
+
+        final long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute - offsetMinutes) * 60000L + second * 1000L;
+    }
+
+    private static int digits(String string, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final int digit = string.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid XMLTV time " + string);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 for a date in the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    public static class Stats {
+
+        private int channels;
+        private long events;
+        private long skipped;
+        private long millis;
+        private long peakHeapBytes;
+
+        private void reset() {
+            channels = 0;
+            events = 0;
+            skipped = 0;
+            millis = 0;
+            peakHeapBytes = 0;
+        }
+
+        public int getChannelCount() {
+            return channels;
+        }
+
+        public long getEventCount() {
+            return events;
+        }
+
+        public long getSkippedCount() {
+            return skipped;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public long getEventsPerSecond() {
+            return millis == 0 ? events : events * 1000 / millis;
+        }
+
+        /**
+         * @return highest used heap sampled while parsing, includes anything else living in the heap.
+         */
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "XMLTV channels=" + channels + ", events=" + events + ", skipped=" + skipped
+                    + ", millis=" + millis + ", eventsPerSecond=" + getEventsPerSecond()
+                    + ", peakHeapBytes=" + peakHeapBytes;
+        }
+    }
+}
@@ -18,6 +18,10 @@ import se.kmdev.tvepg.epg.domain.EPGEvent;
 public class MockDataService {
 
     private static Random rand = new Random();
+    private static final int CHANNEL_COUNT = 20;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    // Schedules returned per range start here so every range of a channel is cut from the same schedule
+    private static final long scheduleOrigin = System.currentTimeMillis() / DAY_MILLIS * DAY_MILLIS - 30 * DAY_MILLIS;
     private static List<Integer> availableEventLength = Lists.newArrayList(
             1000*60*15,  // 15 minutes
             1000*60*30,  // 30 minutes
@@ -49,9 +53,8 @@ public class MockDataService {
 
         long nowMillis = System.currentTimeMillis();
 
-        for (int i=0 ; i < 20 ; i++) {
-            EPGChannel epgChannel = new EPGChannel(availableChannelLogos.get(i % 5),
-                    "Channel " + (i+1), Integer.toString(i));
+        for (int i=0 ; i < CHANNEL_COUNT ; i++) {
+            EPGChannel epgChannel = createChannel(i);
 
             result.put(epgChannel, createEvents(epgChannel, nowMillis));
         }
@@ -59,6 +62,40 @@ public class MockDataService {
         return result;
     }
 
+    public static List<EPGChannel> getMockChannels() {
+        List<EPGChannel> result = Lists.newArrayList();
+        for (int i=0 ; i < CHANNEL_COUNT ; i++) {
+            result.add(createChannel(i));
+        }
+        return result;
+    }
+
+    /**
+     * Events of a channel overlapping [from, to). Each channel has the same schedule on every call so
+     * ranges loaded one at a time fit together.
+     */
+    public static List<EPGEvent> getMockEvents(int channelPosition, long from, long to) {
+        List<EPGEvent> result = Lists.newArrayList();
+        Random channelRandom = new Random(channelPosition);
+
+        long currentTime = scheduleOrigin;
+        while (currentTime < to) {
+            long eventEnd = currentTime + availableEventLength.get(channelRandom.nextInt(availableEventLength.size()));
+            String title = availableEventTitles.get(channelRandom.nextInt(availableEventTitles.size()));
+            if (eventEnd > from) {
+                result.add(new EPGEvent(currentTime, eventEnd, title));
+            }
+            currentTime = eventEnd;
+        }
+
+        return result;
+    }
+
+    private static EPGChannel createChannel(int position) {
+        return new EPGChannel(availableChannelLogos.get(position % 5),
+                "Channel " + (position+1), Integer.toString(position));
+    }
+
     private static List<EPGEvent> createEvents(EPGChannel epgChannel, long nowMillis) {
         List<EPGEvent> result = Lists.newArrayList();
 
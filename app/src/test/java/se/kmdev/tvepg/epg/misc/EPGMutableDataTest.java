@@ -0,0 +1,172 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import org.joda.time.LocalDate;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Checks that deltas of EPGMutableData trim events partly within the range and that the channel's gap
+ * buffer stays in order over many changes.
+ */
+public class EPGMutableDataTest extends TestCase {
+
+    public void testRemoveTrimsPartlyOverlappingEvents() {
+        EPGMutableData data = createData(event(900, 1000, "A"), event(1000, 1200, "B"), event(1200, 1300, "C"));
+        data.removeEvents(0, 950, 1100);
+
+        assertEvents(data, event(900, 950, "A"), event(1100, 1200, "B"), event(1200, 1300, "C"));
+    }
+
+    public void testRemoveWithinEventSplitsIt() {
+        EPGMutableData data = createData(event(1000, 1200, "Movie"));
+        data.removeEvents(0, 1100, 1130);
+
+        assertEvents(data, event(1000, 1100, "Movie"), event(1130, 1200, "Movie"));
+    }
+
+    public void testReplaceKeepsTrimmedRemainder() {
+        EPGMutableData data = createData(event(1000, 1200, "Match"), event(1200, 1300, "News"));
+        data.replaceEvents(0, 1150, 1250, Lists.newArrayList(event(1150, 1250, "Overtime")));
+
+        assertEvents(data, event(1000, 1150, "Match"), event(1150, 1250, "Overtime"), event(1250, 1300, "News"));
+    }
+
+    public void testInsertReplacesSameEvent() {
+        EPGMutableData data = createData(event(1000, 1100, "A"), event(1100, 1200, "B"));
+        data.insertEvents(0, Lists.newArrayList(event(1100, 1200, "B"), event(1200, 1300, "C")));
+
+        assertEvents(data, event(1000, 1100, "A"), event(1100, 1200, "B"), event(1200, 1300, "C"));
+    }
+
+    public void testReplaceRejectsEventOutsideRange() {
+        EPGMutableData data = createData(event(1000, 1100, "A"));
+        try {
+            data.replaceEvents(0, 1000, 1100, Lists.newArrayList(event(1000, 1200, "B")));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testRandomChangesMatchList() {
+        final Random random = new Random(7);
+        List<EPGEvent> initial = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            initial.add(event(i * 100, i * 100 + 100, "Event " + i));
+        }
+        EPGMutableData data = createData(initial.toArray(new EPGEvent[initial.size()]));
+        List<EPGEvent> expected = Lists.newArrayList(initial);
+
+        for (int change = 0; change < 2000; change++) {
+            final long from = random.nextInt(60) * 100;
+            final long to = from + 100 + random.nextInt(5) * 100;
+            if (random.nextInt(10) == 0) {
+                final long time = random.nextInt(20) * 100;
+                data.dropEventsBefore(time);
+                dropBefore(expected, time);
+            } else {
+                List<EPGEvent> replacement = Lists.newArrayList();
+                for (long start = from; start < to; start += 100) {
+                    replacement.add(event(start, start + 100, "Change " + change));
+                }
+                data.replaceEvents(0, from, to, replacement);
+                replace(expected, from, to, replacement);
+            }
+            assertEvents(data, expected.toArray(new EPGEvent[expected.size()]));
+        }
+    }
+
+    public void testFailedDayIsRequestedAgain() {
+        final long day = new LocalDate(2016, 3, 1).toDateTimeAtStartOfDay().getMillis();
+        final long nextDay = new LocalDate(2016, 3, 2).toDateTimeAtStartOfDay().getMillis();
+        final List<Long> requested = Lists.newArrayList();
+        EPGMutableData data = createData(event(day - 1000, day, "A"));
+        data.setDayLoader(new EPGMutableData.DayLoader() {
+            @Override
+            public void loadDay(EPGMutableData data, long dayStart, long dayEnd) {
+                requested.add(dayStart);
+            }
+        });
+        data.setLoadedUntil(day);
+
+        data.onTimeWindowChanged(day - 1000, day + 1000);
+        assertEquals(Lists.newArrayList(day), requested);
+
+        // Nothing new is requested while the day is loading
+        data.requestMissingDays();
+        assertEquals(1, requested.size());
+
+        data.onDayLoadFailed(day);
+        assertEquals(day, data.getLoadedUntil());
+        data.requestMissingDays();
+        assertEquals(Lists.newArrayList(day, day), requested);
+
+        data.onDayLoaded(day, nextDay);
+        assertEquals(nextDay, data.getLoadedUntil());
+    }
+
+    private static void dropBefore(List<EPGEvent> events, long time) {
+        while (!events.isEmpty() && events.get(0).getEnd() <= time) {
+            events.remove(0);
+        }
+    }
+
+    /**
+     * Straightforward version of replaceEvents() on a plain list.
+     */
+    private static void replace(List<EPGEvent> events, long from, long to, List<EPGEvent> replacement) {
+        List<EPGEvent> result = Lists.newArrayList();
+        for (EPGEvent event : events) {
+            if (event.getEnd() <= from || event.getStart() >= to) {
+                result.add(event);
+                continue;
+            }
+            if (event.getStart() < from) {
+                result.add(event(event.getStart(), from, event.getTitle()));
+            }
+            if (event.getEnd() > to) {
+                result.add(event(to, event.getEnd(), event.getTitle()));
+            }
+        }
+        result.addAll(replacement);
+        Collections.sort(result, new Comparator<EPGEvent>() {
+            @Override
+            public int compare(EPGEvent lhs, EPGEvent rhs) {
+                return Long.valueOf(lhs.getStart()).compareTo(rhs.getStart());
+            }
+        });
+        events.clear();
+        events.addAll(result);
+    }
+
+    private static EPGMutableData createData(EPGEvent... events) {
+        Map<EPGChannel, List<EPGEvent>> map = Maps.newLinkedHashMap();
+        map.put(new EPGChannel(null, "Channel", "1"), Lists.newArrayList(events));
+        return new EPGMutableData(map);
+    }
+
+    private static void assertEvents(EPGMutableData data, EPGEvent... expected) {
+        assertEquals(expected.length, data.getEventCount(0));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getStart(), data.getEventStart(0, i));
+            assertEquals(expected[i].getEnd(), data.getEventEnd(0, i));
+            assertEquals(expected[i].getTitle(), data.getEventTitle(0, i));
+        }
+    }
+
+    private static EPGEvent event(long start, long end, String title) {
+        return new EPGEvent(start, end, title);
+    }
+}
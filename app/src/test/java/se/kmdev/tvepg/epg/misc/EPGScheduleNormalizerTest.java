@@ -0,0 +1,135 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Checks overlap policies, duplicate merge, gap fill and counts of EPGScheduleNormalizer.
+ */
+public class EPGScheduleNormalizerTest extends TestCase {
+
+    public void testEmptyInput() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, 60);
+
+        assertTrue(normalizer.normalize(Lists.<EPGEvent>newArrayList(), new EPGTitleDictionary()).isEmpty());
+        assertEquals(1, normalizer.getChannelCount());
+        assertEquals(0, normalizer.getDroppedCount());
+    }
+
+    public void testUnsortedIsSorted() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(200, 300, "B"), event(100, 200, "A")), new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 200, "A"), event(200, 300, "B"));
+        assertEquals(1, normalizer.getUnsortedCount());
+    }
+
+    public void testDuplicatesAreMerged() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 200, "A"), event(100, 250, "A"), event(250, 300, "B")), new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 250, "A"), event(250, 300, "B"));
+        assertEquals(1, normalizer.getDuplicateCount());
+        assertEquals(0, normalizer.getOverlapCount());
+    }
+
+    public void testKeepEarlierCascade() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        // B is within A and dropped, C starts when A ends, D then starts when C ends
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 300, "A"), event(150, 250, "B"), event(200, 400, "C"), event(350, 500, "D")),
+                new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 300, "A"), event(300, 400, "C"), event(400, 500, "D"));
+        assertEquals(3, normalizer.getOverlapCount());
+        assertEquals(1, normalizer.getDroppedCount());
+    }
+
+    public void testKeepLaterCascade() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_LATER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        // B cuts A, D drops C starting at the same time and then cuts B
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 300, "A"), event(150, 250, "B"), event(200, 260, "C"), event(200, 400, "D")),
+                new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 150, "A"), event(150, 200, "B"), event(200, 400, "D"));
+        assertEquals(3, normalizer.getOverlapCount());
+        assertEquals(1, normalizer.getDroppedCount());
+    }
+
+    public void testKeepLaterDropsEarlierStartingSameTime() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_LATER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 200, "A"), event(100, 300, "B")), new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 300, "B"));
+        assertEquals(1, normalizer.getDroppedCount());
+    }
+
+    public void testGapsAreFilled() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, 60);
+
+        // Gap of 30 is left, gap of 100 is filled
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 200, "A"), event(230, 300, "B"), event(400, 500, "C")), new EPGTitleDictionary());
+
+        assertEvents(result, event(100, 200, "A"), event(230, 300, "B"),
+                event(300, 400, EPGScheduleNormalizer.NO_INFO_TITLE), event(400, 500, "C"));
+        assertEquals(1, normalizer.getGapCount());
+    }
+
+    public void testEmptyAndUntitledEventsAreDropped() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, EPGScheduleNormalizer.NO_GAP_FILL);
+
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 100, "A"), event(100, 200, null), event(200, 300, "B")), new EPGTitleDictionary());
+
+        assertEvents(result, event(200, 300, "B"));
+        assertEquals(2, normalizer.getDroppedCount());
+    }
+
+    public void testTitlesAreInterned() {
+        EPGScheduleNormalizer normalizer = new EPGScheduleNormalizer(
+                EPGScheduleNormalizer.OverlapPolicy.KEEP_EARLIER, EPGScheduleNormalizer.NO_GAP_FILL);
+        EPGTitleDictionary dictionary = new EPGTitleDictionary();
+
+        List<EPGEvent> result = normalizer.normalize(Lists.newArrayList(
+                event(100, 200, new String("News")), event(200, 300, new String("News"))), dictionary);
+
+        assertSame(result.get(0).getTitle(), result.get(1).getTitle());
+        assertEquals(1, dictionary.size());
+    }
+
+    private static void assertEvents(List<EPGEvent> actual, EPGEvent... expected) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getStart(), actual.get(i).getStart());
+            assertEquals(expected[i].getEnd(), actual.get(i).getEnd());
+            assertEquals(expected[i].getTitle(), actual.get(i).getTitle());
+        }
+    }
+
+    private static EPGEvent event(long start, long end, String title) {
+        return new EPGEvent(start, end, title);
+    }
+}
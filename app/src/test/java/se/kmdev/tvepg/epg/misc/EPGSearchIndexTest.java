@@ -0,0 +1,75 @@
+package se.kmdev.tvepg.epg.misc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Checks that EPGSearchIndex follows changes of the data it was built from and that hits map to the
+ * channels of a filtered view.
+ */
+public class EPGSearchIndexTest extends TestCase {
+
+    public void testUpdateAfterReplace() {
+        EPGMutableData data = createData();
+        EPGSearchIndex index = EPGSearchIndex.build(data);
+        assertEquals(1, index.search("match", Long.MIN_VALUE, Long.MAX_VALUE, 10).size());
+
+        data.replaceEvents(1, 1000, 1100, Lists.newArrayList(new EPGEvent(1000, 1100, "Weather")));
+        index.update(data, 1, 1, 1000, 1100);
+
+        assertTrue(index.search("match", Long.MIN_VALUE, Long.MAX_VALUE, 10).isEmpty());
+        List<EPGSearchIndex.Hit> hits = index.search("weather", Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(1, hits.size());
+        assertEquals(1, hits.get(0).getChannelPosition());
+        assertEquals(1000, hits.get(0).getStart());
+    }
+
+    public void testUpdateKeepsTrimmedPart() {
+        EPGMutableData data = createData();
+        EPGSearchIndex index = EPGSearchIndex.build(data);
+
+        data.removeEvents(0, 1050, 1100);
+        index.update(data, 0, 0, 1000, 1100);
+
+        List<EPGSearchIndex.Hit> hits = index.search("news", Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(1, hits.size());
+        assertEquals(1050, hits.get(0).getEnd());
+    }
+
+    public void testUpdateAfterDrop() {
+        EPGMutableData data = createData();
+        EPGSearchIndex index = EPGSearchIndex.build(data);
+
+        data.dropEventsBefore(1100);
+        index.update(data, 0, data.getChannelCount() - 1, 1000, 1100);
+
+        assertTrue(index.search("news", Long.MIN_VALUE, Long.MAX_VALUE, 10).isEmpty());
+        assertEquals(2, index.search("movie", Long.MIN_VALUE, Long.MAX_VALUE, 10).size());
+    }
+
+    public void testHitOfStoreMapsToView() {
+        EPGMutableData data = createData();
+        EPGFilteredData view = new EPGFilteredData(data, new int[]{1});
+        EPGSearchIndex index = EPGSearchIndex.build(data);
+
+        assertEquals(0, view.getViewPosition(index.search("match", 0, 2000, 1).get(0).getChannelPosition()));
+        assertEquals(-1, view.getViewPosition(index.search("news", 0, 2000, 1).get(0).getChannelPosition()));
+    }
+
+    private static EPGMutableData createData() {
+        Map<EPGChannel, List<EPGEvent>> map = Maps.newLinkedHashMap();
+        map.put(new EPGChannel(null, "One", "1"), Lists.newArrayList(
+                new EPGEvent(1000, 1100, "News"), new EPGEvent(1100, 1200, "Movie")));
+        map.put(new EPGChannel(null, "Two", "2"), Lists.newArrayList(
+                new EPGEvent(1000, 1100, "Match"), new EPGEvent(1100, 1200, "Movie")));
+        return new EPGMutableData(map);
+    }
+}
@@ -0,0 +1,36 @@
+package se.kmdev.tvepg.epg.misc;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks ids and shared instances of EPGTitleDictionary, also when it grows past its initial capacity.
+ */
+public class EPGTitleDictionaryTest extends TestCase {
+
+    public void testSameTitleGetsSameId() {
+        EPGTitleDictionary dictionary = new EPGTitleDictionary();
+        final int id = dictionary.getId("News");
+        assertEquals(id, dictionary.getId(new String("News")));
+        assertEquals(1, dictionary.size());
+        assertEquals(2, dictionary.getLookupCount());
+    }
+
+    public void testInternReturnsSharedInstance() {
+        EPGTitleDictionary dictionary = new EPGTitleDictionary();
+        final String first = dictionary.intern(new String("News"));
+        assertSame(first, dictionary.intern(new String("News")));
+    }
+
+    public void testInternPastInitialCapacity() {
+        EPGTitleDictionary dictionary = new EPGTitleDictionary();
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            assertEquals("Title " + i, dictionary.intern("Title " + i));
+        }
+
+        assertEquals(count, dictionary.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("Title " + i, dictionary.getTitle(dictionary.getId("Title " + i)));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package se.kmdev.tvepg.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import se.kmdev.tvepg.epg.EPGIndexedData;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGDataImpl;
+import se.kmdev.tvepg.epg.misc.EPGEventSearch;
+
+/**
+ * Event lookups done by EPG while drawing and on clicks, per store and guide size.
+ * Each invocation does one lookup for a random channel and time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventLookupBenchmark {
+
+    private static final int QUERIES = 4096;
+    private static final int VISIBLE_CHANNELS = 12;
+    private static final long VISIBLE_MILLIS = 2 * 60 * 60 * 1000L;
+
+    @Param({"20", "500", "5000"})
+    public int channelCount;
+
+    @Param({"list", "columnar"})
+    public String store;
+
+    private EPGIndexedData epgData;
+    private int[] channels;
+    private long[] times;
+    private int query;
+
+    @Setup
+    public void setup() {
+        if ("list".equals(store)) {
+            epgData = new EPGDataImpl(SyntheticGuide.create(channelCount));
+        } else {
+            epgData = new EPGColumnarData(SyntheticGuide.create(channelCount));
+        }
+
+        Random random = new Random(42);
+        channels = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            channels[i] = random.nextInt(channelCount);
+        }
+        times = SyntheticGuide.randomTimes(QUERIES, 43);
+    }
+
+    /**
+     * First event ending after a time, as used for the left edge of the viewport.
+     */
+    @Benchmark
+    public int firstEventPosition() {
+        final int i = nextQuery();
+        return epgData.getFirstEventPosition(channels[i], times[i]);
+    }
+
+    /**
+     * Walk all events of a screen of channels and two hours, like drawEvents() does each frame.
+     */
+    @Benchmark
+    public void visibleRange(Blackhole blackhole) {
+        final int i = nextQuery();
+        final int firstChannel = Math.min(channels[i], channelCount - VISIBLE_CHANNELS > 0 ? channelCount - VISIBLE_CHANNELS : 0);
+        final int lastChannel = Math.min(firstChannel + VISIBLE_CHANNELS, channelCount) - 1;
+        final long from = times[i];
+        final long to = from + VISIBLE_MILLIS;
+
+        for (int channel = firstChannel; channel <= lastChannel; channel++) {
+            final int last = EPGEventSearch.getLastEventPosition(epgData, channel, to);
+            for (int pos = EPGEventSearch.getFirstEventPosition(epgData, channel, from); pos <= last; pos++) {
+                blackhole.consume(epgData.getEventStart(channel, pos));
+                blackhole.consume(epgData.getEventEnd(channel, pos));
+                blackhole.consume(epgData.getEventTitle(channel, pos));
+            }
+        }
+    }
+
+    /**
+     * Event at a clicked time scanning the channel's events like EPG.getProgramPosition().
+     */
+    @Benchmark
+    public int hitTestLinear() {
+        final int i = nextQuery();
+        final long time = times[i];
+        List<EPGEvent> events = epgData.getEvents(channels[i]);
+
+        for (int pos = 0; pos < events.size(); pos++) {
+            EPGEvent event = events.get(pos);
+            if (event.getStart() <= time && event.getEnd() >= time) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Event at a clicked time found by binary search.
+     */
+    @Benchmark
+    public int hitTestBinary() {
+        final int i = nextQuery();
+        final int channel = channels[i];
+        final long time = times[i];
+
+        // First event ending at or after time, it contains time if it also starts before it
+        final int pos = epgData.getFirstEventPosition(channel, time - 1);
+        return pos < epgData.getEventCount(channel) && epgData.getEventStart(channel, pos) <= time ? pos : -1;
+    }
+
+    private int nextQuery() {
+        query = (query + 1) & (QUERIES - 1);
+        return query;
+    }
+}
@@ -0,0 +1,69 @@
+package se.kmdev.tvepg.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGDataImpl;
+
+/**
+ * Building the stores from parsed guide data, including interning of titles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+    @Param({"20", "500", "5000"})
+    public int channelCount;
+
+    private Map<EPGChannel, List<EPGEvent>> data;
+
+    @Setup
+    public void setup() {
+        data = SyntheticGuide.create(channelCount);
+    }
+
+    @Benchmark
+    public EPGDataImpl listStore() {
+        return new EPGDataImpl(data);
+    }
+
+    @Benchmark
+    public EPGColumnarData columnarStore() {
+        return new EPGColumnarData(data);
+    }
+
+    /**
+     * Events added one by one as the XMLTV parser does.
+     */
+    @Benchmark
+    public EPGColumnarData columnarBuilder() {
+        EPGColumnarData.Builder builder = new EPGColumnarData.Builder();
+        for (Map.Entry<EPGChannel, List<EPGEvent>> entry : data.entrySet()) {
+            final int channelPosition = builder.addChannel(entry.getKey());
+            for (EPGEvent event : entry.getValue()) {
+                builder.addEvent(channelPosition, event.getStart(), event.getEnd(), event.getTitle());
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,92 @@
+package se.kmdev.tvepg.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGParallelIngest;
+
+/**
+ * EPGParallelIngest per number of worker threads. Scaling is bounded by the cores of the machine running
+ * the benchmark, compare threads = 1 with the rest. Only run on a single core so far, where one thread is
+ * fastest, so scaling is unverified until it is run on a multi-core machine. ParallelIngestTest checks the
+ * result matches the sequential EPGColumnarData build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestScalingBenchmark {
+
+    @Param({"500", "5000"})
+    public int channelCount;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Map<EPGChannel, List<EPGEvent>> data;
+    private ExecutorService pool;
+    private EPGParallelIngest ingest;
+
+    @Setup
+    public void setup() {
+        data = SyntheticGuide.create(channelCount);
+        pool = EPGParallelIngest.newWorkerPool(threads);
+        ingest = new EPGParallelIngest(pool, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Each schedule generated on the worker, standing in for parsing it, then validated, sorted and packed.
+     */
+    @Benchmark
+    public EPGColumnarData loadAndPack() throws Exception {
+        return ingest.ingest(new EPGParallelIngest.ScheduleSource() {
+            @Override
+            public int getChannelCount() {
+                return channelCount;
+            }
+
+            @Override
+            public EPGChannel getChannel(int channelPosition) {
+                return SyntheticGuide.createChannel(channelPosition);
+            }
+
+            @Override
+            public List<EPGEvent> loadSchedule(int channelPosition) {
+                return SyntheticGuide.createEvents(channelPosition);
+            }
+        });
+    }
+
+    /**
+     * Already parsed schedules, only validated, sorted and packed.
+     */
+    @Benchmark
+    public EPGColumnarData pack() throws Exception {
+        return ingest.ingest(data);
+    }
+}
@@ -0,0 +1,80 @@
+package se.kmdev.tvepg.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGSearchIndex;
+
+/**
+ * Title search as typed, a query per keystroke, through EPGSearchIndex compared with scanning every event.
+ * Queries cover a day ahead and return the first 50 hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String[] QUERIES = {"t", "ti", "tle", "title 1", "title 12", "title 123"};
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final int MAX_HITS = 50;
+
+    @Param({"500", "1500"})
+    public int channelCount;
+
+    private EPGColumnarData epgData;
+    private EPGSearchIndex searchIndex;
+    private int query;
+
+    @Setup
+    public void setup() {
+        epgData = new EPGColumnarData(SyntheticGuide.create(channelCount));
+        searchIndex = EPGSearchIndex.build(epgData);
+    }
+
+    @Benchmark
+    public List<EPGSearchIndex.Hit> indexed() {
+        return searchIndex.search(nextQuery(), SyntheticGuide.ORIGIN, SyntheticGuide.ORIGIN + DAY_MILLIS, MAX_HITS);
+    }
+
+    /**
+     * Every event in range checked with contains(), hits counted only since sorting them is extra work.
+     */
+    @Benchmark
+    public int scan() {
+        final String query = nextQuery();
+        final long to = SyntheticGuide.ORIGIN + DAY_MILLIS;
+        int hits = 0;
+
+        for (int channel = 0; channel < channelCount; channel++) {
+            final int last = epgData.getLastEventPosition(channel, to);
+            for (int i = epgData.getFirstEventPosition(channel, SyntheticGuide.ORIGIN); i <= last; i++) {
+                if (epgData.getEventTitle(channel, i).toLowerCase(Locale.ROOT).contains(query)) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private String nextQuery() {
+        query = (query + 1) % QUERIES.length;
+        return QUERIES[query];
+    }
+}
@@ -0,0 +1,80 @@
+package se.kmdev.tvepg.benchmark;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+
+/**
+ * Deterministic guide data for benchmarks. Events are back to back with lengths and titles picked like
+ * a real guide, a few thousand distinct titles repeated over channels and days.
+ */
+public class SyntheticGuide {
+
+    public static final long ORIGIN = 1433116800000L;                  // 2015-06-01 00:00 UTC
+    public static final int DAYS = 6;
+    public static final long END = ORIGIN + DAYS * 24 * 60 * 60 * 1000L;
+
+    private static final int TITLE_COUNT = 3000;
+    private static final long[] EVENT_LENGTHS = {
+            15 * 60 * 1000L, 30 * 60 * 1000L, 45 * 60 * 1000L, 60 * 60 * 1000L, 90 * 60 * 1000L, 120 * 60 * 1000L
+    };
+
+    public static Map<EPGChannel, List<EPGEvent>> create(int channelCount) {
+        Random random = new Random(channelCount);
+        Map<EPGChannel, List<EPGEvent>> result = Maps.newLinkedHashMap();
+
+        for (int i = 0; i < channelCount; i++) {
+            EPGChannel channel = createChannel(i);
+            List<EPGEvent> events = Lists.newArrayList();
+
+            long start = ORIGIN;
+            while (start < END) {
+                final long end = start + EVENT_LENGTHS[random.nextInt(EVENT_LENGTHS.length)];
+                // New string per event like a parser would create, stores intern them
+                events.add(new EPGEvent(start, end, new String("Title " + random.nextInt(TITLE_COUNT))));
+                start = end;
+            }
+            result.put(channel, events);
+        }
+        return result;
+    }
+
+    public static EPGChannel createChannel(int channelPosition) {
+        return new EPGChannel("http://example.com/logos/" + channelPosition + ".png",
+                "Channel " + (channelPosition + 1), Integer.toString(channelPosition));
+    }
+
+    /**
+     * Schedule of one channel generated on its own, seeded by position, for ingest done per channel.
+     */
+    public static List<EPGEvent> createEvents(int channelPosition) {
+        Random random = new Random(channelPosition);
+        List<EPGEvent> events = Lists.newArrayList();
+
+        long start = ORIGIN;
+        while (start < END) {
+            final long end = start + EVENT_LENGTHS[random.nextInt(EVENT_LENGTHS.length)];
+            events.add(new EPGEvent(start, end, new String("Title " + random.nextInt(TITLE_COUNT))));
+            start = end;
+        }
+        return events;
+    }
+
+    /**
+     * @return random times within the guide, for lookups.
+     */
+    public static long[] randomTimes(int count, long seed) {
+        Random random = new Random(seed);
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = ORIGIN + (long) (random.nextDouble() * (END - ORIGIN));
+        }
+        return times;
+    }
+}
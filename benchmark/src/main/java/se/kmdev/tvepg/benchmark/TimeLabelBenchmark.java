@@ -0,0 +1,74 @@
+package se.kmdev.tvepg.benchmark;
+
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import se.kmdev.tvepg.epg.misc.EPGTimeLabels;
+
+/**
+ * Time bar labels, formatting with Joda as EPGUtil falls back to compared with precomputed EPGTimeLabels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeLabelBenchmark {
+
+    private static final long SPACING = 30 * 60 * 1000L;
+    private static final int LABELS = 1024;
+
+    private final DateTimeFormatter shortTimeFormatter = DateTimeFormat.forPattern("HH:mm");
+    private EPGTimeLabels timeLabels;
+    private long[] times;
+    private int label;
+
+    @Setup
+    public void setup() {
+        timeLabels = new EPGTimeLabels(SyntheticGuide.ORIGIN, SyntheticGuide.END, SPACING);
+
+        times = new long[LABELS];
+        for (int i = 0; i < LABELS; i++) {
+            times[i] = SyntheticGuide.ORIGIN + (i % (SyntheticGuide.DAYS * 48)) * SPACING;
+        }
+    }
+
+    @Benchmark
+    public String shortTimeFormatted() {
+        return shortTimeFormatter.print(nextTime());
+    }
+
+    @Benchmark
+    public String shortTimePrecomputed() {
+        return timeLabels.getShortTime(nextTime());
+    }
+
+    @Benchmark
+    public String weekdayFormatted() {
+        return new LocalDate(nextTime()).dayOfWeek().getAsText();
+    }
+
+    @Benchmark
+    public String weekdayPrecomputed() {
+        return timeLabels.getWeekdayName(nextTime());
+    }
+
+    private long nextTime() {
+        label = (label + 1) & (LABELS - 1);
+        return times[label];
+    }
+}
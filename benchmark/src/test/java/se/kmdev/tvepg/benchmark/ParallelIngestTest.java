@@ -0,0 +1,81 @@
+package se.kmdev.tvepg.benchmark;
+
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import se.kmdev.tvepg.epg.domain.EPGChannel;
+import se.kmdev.tvepg.epg.domain.EPGEvent;
+import se.kmdev.tvepg.epg.misc.EPGColumnarData;
+import se.kmdev.tvepg.epg.misc.EPGParallelIngest;
+
+/**
+ * Checks that EPGParallelIngest builds the same store as the sequential EPGColumnarData constructor, for
+ * the guide IngestScalingBenchmark measures.
+ */
+public class ParallelIngestTest extends TestCase {
+
+    private static final int CHANNEL_COUNT = 300;
+
+    private ExecutorService pool;
+
+    @Override
+    protected void setUp() {
+        pool = EPGParallelIngest.newWorkerPool(4);
+    }
+
+    @Override
+    protected void tearDown() {
+        pool.shutdown();
+    }
+
+    public void testParallelIngestMatchesSequentialBuild() throws Exception {
+        final Map<EPGChannel, List<EPGEvent>> data = SyntheticGuide.create(CHANNEL_COUNT);
+        assertSameData(new EPGColumnarData(data), new EPGParallelIngest(pool, 4).ingest(data));
+    }
+
+    public void testParallelIngestFromSourceMatchesSequentialBuild() throws Exception {
+        final EPGColumnarData parallel = new EPGParallelIngest(pool, 4).ingest(new EPGParallelIngest.ScheduleSource() {
+            @Override
+            public int getChannelCount() {
+                return CHANNEL_COUNT;
+            }
+
+            @Override
+            public EPGChannel getChannel(int channelPosition) {
+                return SyntheticGuide.createChannel(channelPosition);
+            }
+
+            @Override
+            public List<EPGEvent> loadSchedule(int channelPosition) {
+                return SyntheticGuide.createEvents(channelPosition);
+            }
+        });
+
+        // Schedules generated per channel differ from create(), so the sequential build uses the same ones
+        final Map<EPGChannel, List<EPGEvent>> data = Maps.newLinkedHashMap();
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            data.put(SyntheticGuide.createChannel(i), SyntheticGuide.createEvents(i));
+        }
+        assertSameData(new EPGColumnarData(data), parallel);
+    }
+
+    private static void assertSameData(EPGColumnarData expected, EPGColumnarData actual) {
+        assertEquals(expected.getChannelCount(), actual.getChannelCount());
+        assertEquals(expected.getTitleDictionary().size(), actual.getTitleDictionary().size());
+
+        for (int channel = 0; channel < expected.getChannelCount(); channel++) {
+            assertEquals(expected.getChannel(channel).getChannelID(), actual.getChannel(channel).getChannelID());
+            assertEquals(expected.getEventCount(channel), actual.getEventCount(channel));
+            for (int i = 0; i < expected.getEventCount(channel); i++) {
+                assertEquals(expected.getEventStart(channel, i), actual.getEventStart(channel, i));
+                assertEquals(expected.getEventEnd(channel, i), actual.getEventEnd(channel, i));
+                assertEquals(expected.getEventTitle(channel, i), actual.getEventTitle(channel, i));
+            }
+        }
+    }
+}